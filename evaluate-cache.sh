@@ -0,0 +1,42 @@
+#!/bin/bash
+
+# Cold and warm page cache runs of Main with the Linux memory hints, needs Linux, hyperfine and GNU dd.
+# Cold runs drop pool.csv from the page cache before every run, no root needed:
+#   dd iflag=nocache count=0 asks the kernel to evict the cached pages of that file only
+
+JAVA_VERSION="21.0.6-graal"
+INPUT_ARGS="9 13 40 34 17 7"
+
+echo "using $JAVA_VERSION"
+
+# set java version
+source "$HOME/.sdkman/bin/sdkman-init.sh"
+sdk use java $JAVA_VERSION
+
+# java compile
+"$HOME"/.sdkman/candidates/java/$JAVA_VERSION/bin/javac --release "$(echo $JAVA_VERSION | cut -d. -f1)" --enable-preview -d ./bin ./src/Main.java
+
+JAVA="$HOME/.sdkman/candidates/java/$JAVA_VERSION/bin/java"
+JAVA_OPTS="-Xmx64m -XX:MaxGCPauseMillis=1 -XX:-AlwaysPreTouch -XX:+UseSerialGC -XX:+TieredCompilation --enable-preview --enable-native-access=ALL-UNNAMED"
+EVICT="dd if=pool.csv iflag=nocache count=0 status=none"
+
+# one command per variant, hints are combined the way they are meant to be used
+VARIANTS=(
+  ""
+  "-Dadvise=willneed"
+  "-Dadvise=sequential,willneed"
+  "-Dforward=true"
+  "-Dforward=true -Dadvise=sequential"
+  "-Dpopulate=true"
+  "-Dadvise=hugepage"
+)
+COMMANDS=()
+for variant in "${VARIANTS[@]}"; do
+  COMMANDS+=("$JAVA $JAVA_OPTS $variant -classpath ./bin Main $INPUT_ARGS")
+done
+
+echo "Cold cache" 1>&2
+hyperfine --runs 5 --prepare "sync; $EVICT" --output null --export-markdown cache-cold.md "${COMMANDS[@]}"
+
+echo "Warm cache" 1>&2
+hyperfine --warmup 3 --runs 10 --output null --export-markdown cache-warm.md "${COMMANDS[@]}"
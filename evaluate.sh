@@ -19,8 +19,14 @@ echo "using $JAVA_VERSION"
 source "$HOME/.sdkman/bin/sdkman-init.sh"
 sdk use java $JAVA_VERSION
 
+# incubator modules are only added for the solutions using them
+MODULE_OPTS=""
+if grep -q "jdk.incubator.vector" ./src/"$param1".java; then
+  MODULE_OPTS="--add-modules jdk.incubator.vector"
+fi
+
 # java compile
-"$HOME"/.sdkman/candidates/java/$JAVA_VERSION/bin/javac --release "$(echo $JAVA_VERSION | cut -d. -f1)" --enable-preview -d ./bin ./src/"$param1".java
+"$HOME"/.sdkman/candidates/java/$JAVA_VERSION/bin/javac --release "$(echo $JAVA_VERSION | cut -d. -f1)" --enable-preview $MODULE_OPTS -d ./bin ./src/"$param1".java
 
 if [ "$param2" == "--native" ]; then
     NATIVE_IMAGE_OPTS="--initialize-at-build-time=$param1 -O3 -march=native --gc=epsilon -R:MaxHeapSize=64m -H:-GenLoopSafepoints --enable-preview"
@@ -35,7 +41,7 @@ if [ "$param2" == "--native" ]; then
     echo "Picking up native image './$imageName'" 1>&2
     hyperfine $HYPERFINE_OPTS "$TIMEOUT ./$imageName $INPUT_ARGS"
 else
-    JAVA_OPTS="-Xmx64m -XX:MaxGCPauseMillis=1 -XX:-AlwaysPreTouch -XX:+UseSerialGC -XX:+TieredCompilation --enable-preview"
+    JAVA_OPTS="-Xmx64m -XX:MaxGCPauseMillis=1 -XX:-AlwaysPreTouch -XX:+UseSerialGC -XX:+TieredCompilation --enable-preview $MODULE_OPTS"
     echo "Choosing to run the app in JVM mode" 1>&2
     hyperfine $HYPERFINE_OPTS "$TIMEOUT sh -c '$HOME/.sdkman/candidates/java/$JAVA_VERSION/bin/java $JAVA_OPTS -classpath ./bin $param1 $INPUT_ARGS'"
 fi
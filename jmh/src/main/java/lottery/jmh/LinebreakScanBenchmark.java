@@ -0,0 +1,99 @@
+package lottery.jmh;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorSpecies;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The two linebreak scanners of MainVector over the generated pool, single thread. Both loops are the ones of
+ * MainVector.RegionWorker with check replaced by a sum of the linebreak positions, so only the scanning is measured.
+ * Both do the same work: the last line without a linebreak, every linebreak and the bytes left at the start.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = { "--enable-preview", "--add-modules", "jdk.incubator.vector" })
+@State(Scope.Thread)
+public class LinebreakScanBenchmark {
+
+  private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+  // same as MainVector.linebreakPos, 8 when the word has no linebreak
+  private static int linebreakPos(long word) {
+    final long hasVal = word ^ 0xa0a0a0a0a0a0a0aL;
+    return Long.numberOfTrailingZeros(((hasVal - 0x0101010101010101L) & ~hasVal & 0x8080808080808080L)) >>> 3;
+  }
+
+  @Benchmark
+  public long swar(PoolState pool) {
+    final MemorySegment segment = pool.segment;
+    final long start = 0;
+    final long end = pool.size;
+    long sum = 0;
+    long word;
+    long relativePos = start < end && segment.get(ValueLayout.JAVA_BYTE, end - 1) != '\n' ? 0 : 8;
+    long lineBreakPos = end;
+    long position = end;
+    final long loopCount = (end - start) / 8;
+    for (int i = 0; i < loopCount; i++) {
+      if (relativePos != 8) {
+        sum += lineBreakPos;
+      }
+      word = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, position - 8);
+      relativePos = linebreakPos(word);
+      lineBreakPos = position - 8 + relativePos;
+      position -= 8;
+    }
+    if (relativePos != 8) {
+      sum += lineBreakPos;
+    }
+    while (--position >= start) {
+      if (segment.get(ValueLayout.JAVA_BYTE, position) == '\n') {
+        sum += position;
+      }
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public long vector(PoolState pool) {
+    final MemorySegment segment = pool.segment;
+    final long start = 0;
+    final long end = pool.size;
+    long sum = 0;
+    if (start < end && segment.get(ValueLayout.JAVA_BYTE, end - 1) != '\n') {
+      sum += end;
+    }
+    final int length = SPECIES.length();
+    long position = end;
+    while (position - length >= start) {
+      final ByteVector vector = ByteVector.fromMemorySegment(SPECIES, segment, position - length, ByteOrder.nativeOrder());
+      long linebreaks = vector.eq((byte) '\n').toLong();
+      while (linebreaks != 0) {
+        final int highest = 63 - Long.numberOfLeadingZeros(linebreaks);
+        sum += position - length + highest;
+        linebreaks ^= 1L << highest;
+      }
+      position -= length;
+    }
+    while (--position >= start) {
+      if (segment.get(ValueLayout.JAVA_BYTE, position) == '\n') {
+        sum += position;
+      }
+    }
+    return sum;
+  }
+}
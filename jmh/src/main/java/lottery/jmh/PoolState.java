@@ -0,0 +1,98 @@
+package lottery.jmh;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Generated pool in off-heap memory, the same bytes are read through a MemorySegment and through its raw address.
+ * Lines look like pool.csv, a name and 6 unique numbers in [1-49]. Every WINNER_EVERY line is a permutation of the draw.
+ */
+@State(Scope.Benchmark)
+public class PoolState {
+
+  static final String[] DRAW = { "9", "13", "40", "34", "17", "7" }; // same as evaluate.sh
+  static final int SAMPLE = 4096; // lines used by the primitive benchmarks
+  static final int WINNER_EVERY = 997;
+
+  @Param("1000000")
+  int lines;
+
+  Arena arena;
+  MemorySegment segment;
+  long address;
+  long size;
+  int inputLength;
+
+  // offsets of the first SAMPLE linebreaks, the first line is skipped so that every tail read stays in bounds
+  final long[] lineEnds = new long[SAMPLE];
+
+  @Setup(Level.Trial)
+  public void setup() throws Throwable {
+    final byte[] pool = generate(this.lines, 42);
+    this.arena = Arena.ofShared();
+    this.segment = this.arena.allocate(pool.length, 8);
+    MemorySegment.copy(MemorySegment.ofArray(pool), 0, this.segment, 0, pool.length);
+    this.address = this.segment.address();
+    this.size = pool.length;
+    this.inputLength = (";" + String.join(";", DRAW)).getBytes().length;
+
+    int found = -1;
+    for (long i = 0; i < this.size && found < SAMPLE; i++) {
+      if (this.segment.get(ValueLayout.JAVA_BYTE, i) == '\n') {
+        if (found >= 0) this.lineEnds[found] = i;
+        found++;
+      }
+    }
+    if (found < SAMPLE) {
+      throw new IllegalStateException("Pool is too small for the sample, lines: " + this.lines);
+    }
+    Solutions.prepare(DRAW);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.arena.close();
+  }
+
+  static byte[] generate(int lines, long seed) {
+    final Random random = new Random(seed);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(lines * 32);
+    final List<Integer> numbers = new ArrayList<>(49);
+    for (int n = 1; n <= 49; n++) numbers.add(n);
+    final List<String> draw = new ArrayList<>(List.of(DRAW));
+
+    final StringBuilder line = new StringBuilder();
+    for (int i = 0; i < lines; i++) {
+      line.setLength(0);
+      final int nameLength = 5 + random.nextInt(16);
+      for (int c = 0; c < nameLength; c++) {
+        line.append(c == nameLength / 2 ? ' ' : (char) ('a' + random.nextInt(26)));
+      }
+      if (i % WINNER_EVERY == WINNER_EVERY - 1) {
+        Collections.shuffle(draw, random);
+        for (String number : draw) line.append(';').append(number);
+      }
+      else {
+        Collections.shuffle(numbers, random);
+        for (int n = 0; n < 6; n++) line.append(';').append(numbers.get(n));
+      }
+      line.append('\n');
+      out.writeBytes(line.toString().getBytes(UTF_8));
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,119 @@
+package lottery.jmh;
+
+import static lottery.jmh.Solutions.MAIN_COMPARE;
+import static lottery.jmh.Solutions.MAIN_EMPTY_SEARCH_INPUT;
+import static lottery.jmh.Solutions.MAIN_LINEBREAK_POS;
+import static lottery.jmh.Solutions.MAIN_SEARCH_INPUT;
+import static lottery.jmh.Solutions.UNSAFE;
+import static lottery.jmh.Solutions.UNSAFE_COMPARE;
+import static lottery.jmh.Solutions.UNSAFE_EMPTY_SEARCH_INPUT;
+import static lottery.jmh.Solutions.UNSAFE_LINEBREAK_POS;
+import static lottery.jmh.Solutions.X_COMPARE_NUMBERS;
+import static lottery.jmh.Solutions.X_SEARCH_INPUT;
+
+import java.lang.foreign.ValueLayout;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per line cost of the primitives in the scan loops, each invocation goes over PoolState.SAMPLE lines (or words).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "--enable-preview" })
+@State(Scope.Thread)
+@OperationsPerInvocation(PoolState.SAMPLE)
+public class PrimitivesBenchmark {
+
+  Object mainSearchInput;
+  Object unsafeSearchInput;
+  Object xSearchInput;
+  // Main search inputs of the sample lines as they are built in compare
+  final Object[] tails = new Object[PoolState.SAMPLE];
+
+  @Setup(Level.Trial)
+  public void setup(PoolState pool) throws Throwable {
+    this.mainSearchInput = (Object) MAIN_EMPTY_SEARCH_INPUT.invokeExact();
+    this.unsafeSearchInput = (Object) UNSAFE_EMPTY_SEARCH_INPUT.invokeExact();
+    this.xSearchInput = (Object) X_SEARCH_INPUT.invokeExact((Object) PoolState.DRAW);
+    for (int i = 0; i < PoolState.SAMPLE; i++) {
+      final long lineEnd = pool.lineEnds[i];
+      final byte[] tail = pool.segment.asSlice(lineEnd - pool.inputLength, pool.inputLength).toArray(ValueLayout.JAVA_BYTE);
+      this.tails[i] = (Object) MAIN_SEARCH_INPUT.invokeExact((Object) tail);
+    }
+  }
+
+  @Benchmark
+  public long linebreakPosFfm(PoolState pool) throws Throwable {
+    long sum = 0;
+    for (long i = 0; i < PoolState.SAMPLE; i++) { // consecutive words as in the scan loop
+      final long word = pool.segment.get(ValueLayout.JAVA_LONG_UNALIGNED, i << 3);
+      sum += (int) MAIN_LINEBREAK_POS.invokeExact(word);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public long linebreakPosUnsafe(PoolState pool) throws Throwable {
+    long sum = 0;
+    for (long i = 0; i < PoolState.SAMPLE; i++) {
+      final long word = UNSAFE.getLong(pool.address + (i << 3));
+      sum += (int) UNSAFE_LINEBREAK_POS.invokeExact(word);
+    }
+    return sum;
+  }
+
+  // compare reads the tail of the line and looks it up in InputSet
+  @Benchmark
+  public int compareFfm(PoolState pool) throws Throwable {
+    int matches = 0;
+    for (int i = 0; i < PoolState.SAMPLE; i++) {
+      if ((boolean) MAIN_COMPARE.invokeExact((Object) pool.segment, pool.lineEnds[i], this.mainSearchInput, pool.inputLength)) {
+        matches++;
+      }
+    }
+    return matches;
+  }
+
+  @Benchmark
+  public int compareUnsafe(PoolState pool) throws Throwable {
+    int matches = 0;
+    for (int i = 0; i < PoolState.SAMPLE; i++) {
+      if ((boolean) UNSAFE_COMPARE.invokeExact(pool.address + pool.lineEnds[i], this.unsafeSearchInput, pool.inputLength)) {
+        matches++;
+      }
+    }
+    return matches;
+  }
+
+  @Benchmark
+  public int searchInputHashCode() {
+    int sum = 0;
+    for (int i = 0; i < PoolState.SAMPLE; i++) {
+      sum += this.tails[i].hashCode();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public int compareNumbers(PoolState pool) throws Throwable {
+    int score = 0;
+    for (int i = 0; i < PoolState.SAMPLE; i++) {
+      score += (int) X_COMPARE_NUMBERS.invokeExact((Object) pool.segment, pool.lineEnds[i], this.xSearchInput);
+    }
+    return score;
+  }
+}
@@ -0,0 +1,61 @@
+package lottery.jmh;
+
+import static lottery.jmh.Solutions.MAIN_REGION_WORKER;
+import static lottery.jmh.Solutions.UNSAFE_REGION_WORKER;
+import static lottery.jmh.Solutions.X_REGION_WORKER;
+import static lottery.jmh.Solutions.X_SEARCH_INPUT;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A whole RegionWorker.run on the calling thread over the generated pool, the pool is claimed as a single chunk.
+ * Winners are collected in the worker output buffer as usual, the worker is returned so nothing is eliminated.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = { "--enable-preview" })
+@State(Scope.Thread)
+public class RegionWorkerBenchmark {
+
+  Object xSearchInput;
+
+  @Setup(Level.Trial)
+  public void setup() throws Throwable {
+    this.xSearchInput = (Object) X_SEARCH_INPUT.invokeExact((Object) PoolState.DRAW);
+  }
+
+  @Benchmark
+  public Object mainFfm(PoolState pool) throws Throwable {
+    final Runnable worker = (Runnable) (Object) MAIN_REGION_WORKER.invokeExact((Object) pool.segment, pool.size, (Object) new AtomicLong(), pool.size, pool.inputLength);
+    worker.run();
+    return worker;
+  }
+
+  @Benchmark
+  public Object mainUnsafe(PoolState pool) throws Throwable {
+    final Runnable worker = (Runnable) (Object) UNSAFE_REGION_WORKER.invokeExact(pool.address, pool.size, (Object) new AtomicLong(), pool.size, pool.inputLength);
+    worker.run();
+    return worker;
+  }
+
+  @Benchmark
+  public Object xNumbers(PoolState pool) throws Throwable {
+    final Runnable worker = (Runnable) (Object) X_REGION_WORKER.invokeExact((Object) pool.segment, pool.size, (Object) new AtomicLong(), pool.size, this.xSearchInput);
+    worker.run();
+    return worker;
+  }
+}
@@ -0,0 +1,96 @@
+package lottery.jmh;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicLong;
+import sun.misc.Unsafe;
+
+/**
+ * Handles to the members of the solutions. Solutions live in the default package which can't be imported,
+ * so they are looked up by name. All handles are erased to Object for the solution types,
+ * kept in static finals they are constants for the JIT and inlined like direct calls.
+ */
+final class Solutions {
+
+  static final Unsafe UNSAFE = unsafe();
+
+  // Main, memory api
+  static final MethodHandle MAIN_LINEBREAK_POS = method("Main", "linebreakPos");
+  static final MethodHandle MAIN_COMPARE = method("Main", "compare");
+  static final MethodHandle MAIN_SEARCH_INPUT = constructor("Main$TokenizedSearchInput", byte[].class);
+  static final MethodHandle MAIN_EMPTY_SEARCH_INPUT = constructor("Main$TokenizedSearchInput");
+  static final MethodHandle MAIN_REGION_WORKER = constructor("Main$RegionWorker", MemorySegment.class, long.class, AtomicLong.class, long.class, int.class);
+
+  // MainUnsafe, raw addresses
+  static final MethodHandle UNSAFE_LINEBREAK_POS = method("MainUnsafe", "linebreakPos");
+  static final MethodHandle UNSAFE_COMPARE = method("MainUnsafe", "compare");
+  static final MethodHandle UNSAFE_EMPTY_SEARCH_INPUT = constructor("MainUnsafe$TokenizedSearchInput");
+  static final MethodHandle UNSAFE_REGION_WORKER = constructor("MainUnsafe$RegionWorker");
+
+  // MainXNumbers
+  static final MethodHandle X_COMPARE_NUMBERS = method("MainXNumbers", "compareNumbers");
+  static final MethodHandle X_SEARCH_INPUT = constructor("MainXNumbers$TokenizedSearchInput", String[].class);
+  static final MethodHandle X_REGION_WORKER = constructor("MainXNumbers$RegionWorker");
+
+  private static boolean prepared;
+
+  private Solutions() {
+  }
+
+  // lookup tables of Main and MainUnsafe are static, filled once per JVM
+  static synchronized void prepare(String[] draw) throws Throwable {
+    if (prepared) return;
+    method("Main", "generatePermutations").invokeExact((Object) draw.clone());
+    method("MainUnsafe", "generatePermutations").invokeExact((Object) draw.clone());
+    prepared = true;
+  }
+
+  // the only method with the given name, solutions don't overload
+  static MethodHandle method(String className, String name) {
+    try {
+      final Class<?> type = Class.forName(className);
+      for (Method method : type.getDeclaredMethods()) {
+        if (method.getName().equals(name)) {
+          final MethodHandle handle = MethodHandles.privateLookupIn(type, MethodHandles.lookup()).unreflect(method);
+          return handle.asType(handle.type().erase());
+        }
+      }
+      throw new NoSuchMethodException(className + "." + name);
+    }
+    catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // the given constructor, or the only one when no parameter types are given
+  static MethodHandle constructor(String className, Class<?>... parameterTypes) {
+    try {
+      final Class<?> type = Class.forName(className);
+      final Constructor<?>[] constructors = type.getDeclaredConstructors();
+      Constructor<?> constructor = constructors[0];
+      if (parameterTypes.length > 0 || constructors.length > 1) {
+        constructor = type.getDeclaredConstructor(parameterTypes);
+      }
+      final MethodHandle handle = MethodHandles.privateLookupIn(type, MethodHandles.lookup()).unreflectConstructor(constructor);
+      return handle.asType(handle.type().erase());
+    }
+    catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static Unsafe unsafe() {
+    try {
+      final Field f = Unsafe.class.getDeclaredField("theUnsafe");
+      f.setAccessible(true);
+      return (Unsafe) f.get(null);
+    }
+    catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -1,15 +1,38 @@
-import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
 
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
 
 
 /**
@@ -29,6 +52,22 @@ import java.util.Arrays;
  * Increase bucket size, adjust JVM options                               ~870ms    - increasing bucket size from 16K to 256K eleminates collisions (almost) and gives us ~80ms bonus
  * Micro optimizations                                                    ~810ms    - eleminate redundant compare check in some cases
  *
+ * Run with -Dmetrics=true to print per worker scan counters as json to stderr, chunks are also recorded as
+ * "lottery.ChunkScan" JFR events when a recording is on, e.g. -XX:StartFlightRecording=filename=scan.jfr
+ *
+ * Run with -Dshards=regions or -Dshards='regions/*.csv' to scan a directory or a glob of pool files in one go,
+ * their chunks go to the same workers and winners are printed as shard;name with the path of the shard under the directory
+ *
+ * Linux only, page cache hints through the FFM linker for cold runs that are bound by page faults:
+ *  - -Dadvise=sequential,willneed: sequential, random or hugepage are set once on the whole mapping,
+ *    willneed is given for every chunk when it's claimed, so the kernel reads it ahead while the scan catches up
+ *  - -Dpopulate=true maps with MAP_POPULATE, all pages are faulted in before the scan starts
+ *  - -Dforward=true scans chunks forward, pages are touched in the order the kernel readahead expects
+ * Add --enable-native-access=ALL-UNNAMED to skip the warning, evaluate-cache.sh compares them on cold and warm cache.
+ *
+ * Run with -Dio=pread to read chunks with positional reads instead of mapping the pool, or -Dio=direct for O_DIRECT
+ * reads that leave the page cache alone (Linux). Every worker has a reader thread filling a ring of -Dprefetch=2
+ * aligned buffers ahead of its scan, -DreadRate=200m caps the reads of all workers in bytes per second.
  *
  * Testing on JDK 21.0.5-graal JIT compiler (no native), limiting to 8 threads.
  * Big thanks to Mike, for bringing this challenge.
@@ -38,12 +77,115 @@ import java.util.Arrays;
 public class Main {
 
   private static final Path DATA_FILE = Path.of("pool.csv");
+  private static final String SHARDS = System.getProperty("shards"); // a directory or a glob of pool files
+
+  // workers claim line aligned chunks from a shared cursor, -Dworkers=16 -DchunkSize=4m to tune
+  private static final int WORKERS = Integer.getInteger("workers", Runtime.getRuntime().availableProcessors());
+  private static final long CHUNK_SIZE = parseSize(System.getProperty("chunkSize", "8m"));
+
+  // print winners in file order with -Dordered=true, otherwise in the order workers found them
+  private static final boolean ORDERED_OUTPUT = Boolean.getBoolean("ordered");
+
+  // static final on purpose, when it's off all counter updates are dead code and the JIT removes them
+  private static final boolean METRICS = Boolean.getBoolean("metrics");
+
+  private static final String[] ADVICE = System.getProperty("advise", "").split(",");
+  private static final boolean WILLNEED = Arrays.asList(ADVICE).contains("willneed");
+  private static final boolean POPULATE = Boolean.getBoolean("populate");
+  private static final boolean FORWARD = Boolean.getBoolean("forward");
+
+  private static final String IO = System.getProperty("io", "mmap"); // mmap, pread or direct
+  private static final boolean MAPPED = IO.equals("mmap");
+  private static final int PREFETCH = Integer.getInteger("prefetch", 2); // read buffers per worker
+  private static final long READ_RATE = parseSize(System.getProperty("readRate", "0")); // bytes per second, 0 is no limit
+  private static final int ALIGNMENT = 4096; // offsets, sizes and addresses of direct reads
+  private static final int OVERLAP = 64 * 1024; // read past the chunk end for its last line, longer lines are rejected
+
+  @Name("lottery.ChunkScan")
+  @Label("Chunk Scan")
+  @Category("Lottery")
+  static class ChunkScanEvent extends Event {
+    @Label("Start")
+    long start;
+    @Label("Size")
+    @DataAmount
+    long size;
+    @Label("Lines")
+    long lines;
+    @Label("Winners")
+    long winners;
+  }
+
+  // Per worker output, names are appended off-heap without any lock and written once in the end
+  static final class OutputBuffer {
+
+    private static final int INITIAL_SIZE = 1 << 16;
 
-  private static void printName(MemorySegment segment, long start, long end) {
-    final ByteBuffer buffer = segment.asSlice(start, end - start).asByteBuffer();
-    final byte[] bytes = new byte[(int) (end - start)];
-    buffer.get(bytes);
-    System.out.println(new String(bytes, UTF_8));
+    MemorySegment buffer = Arena.ofAuto().allocate(INITIAL_SIZE);
+    long size;
+
+    // file offset and buffer position of each name, only kept when the output is ordered
+    long[] offsets = new long[ORDERED_OUTPUT ? 64 : 0];
+    long[] positions = new long[ORDERED_OUTPUT ? 64 : 0];
+    int count;
+
+    // offset orders the names, it's the position in the global range of all shards
+    void append(MemorySegment tag, MemorySegment segment, long start, long end, long offset) {
+      final long tagLength = tag.byteSize();
+      final long length = end - start;
+      if (this.size + tagLength + length + 1 > this.buffer.byteSize()) { // grow, double the size
+        final MemorySegment grown = Arena.ofAuto().allocate(Math.max(this.buffer.byteSize() << 1, this.size + tagLength + length + 1));
+        MemorySegment.copy(this.buffer, 0, grown, 0, this.size);
+        this.buffer = grown;
+      }
+      if (ORDERED_OUTPUT) {
+        if (this.count == this.offsets.length) {
+          this.offsets = Arrays.copyOf(this.offsets, this.count << 1);
+          this.positions = Arrays.copyOf(this.positions, this.count << 1);
+        }
+        this.offsets[this.count] = offset;
+        this.positions[this.count] = this.size;
+        this.count++;
+      }
+      MemorySegment.copy(tag, 0, this.buffer, this.size, tagLength);
+      MemorySegment.copy(segment, start, this.buffer, this.size + tagLength, length);
+      this.buffer.set(ValueLayout.JAVA_BYTE, this.size + tagLength + length, (byte) '\n');
+      this.size += tagLength + length + 1;
+    }
+  }
+
+  // single gathering write for all worker buffers, ordered by file offset if requested
+  private static void writeOutputs(OutputBuffer[] outputs, FileChannel channel) throws IOException {
+    ByteBuffer[] buffers;
+    if (ORDERED_OUTPUT) {
+      int total = 0;
+      for (OutputBuffer output : outputs) total += output.count;
+      final long[][] entries = new long[total][]; // offset, position, length and worker of each name
+      int index = 0;
+      for (int w = 0; w < outputs.length; w++) {
+        final OutputBuffer output = outputs[w];
+        for (int i = 0; i < output.count; i++) {
+          final long next = i + 1 < output.count ? output.positions[i + 1] : output.size;
+          entries[index++] = new long[] { output.offsets[i], output.positions[i], next - output.positions[i], w };
+        }
+      }
+      Arrays.sort(entries, (a, b) -> Long.compare(a[0], b[0]));
+      buffers = new ByteBuffer[total];
+      for (int i = 0; i < total; i++) {
+        buffers[i] = outputs[(int) entries[i][3]].buffer.asSlice(entries[i][1], entries[i][2]).asByteBuffer();
+      }
+    }
+    else {
+      buffers = new ByteBuffer[outputs.length];
+      for (int i = 0; i < outputs.length; i++) {
+        buffers[i] = outputs[i].buffer.asSlice(0, outputs[i].size).asByteBuffer();
+      }
+    }
+    int first = 0;
+    while (first < buffers.length) {
+      channel.write(buffers, first, buffers.length - first);
+      while (first < buffers.length && !buffers[first].hasRemaining()) first++; // skip written buffers
+    }
   }
 
   private static long findPreviousLinebreak(MemorySegment segment, long offset) {
@@ -77,55 +219,54 @@ public class Main {
     return inputSet.contains(searchInput.reset(firstShort, firstLong, secondLong));
   }
 
-  // Custome Set on purpose, less possible checks
+  // Custome Set on purpose, open addressing over parallel primitive arrays.
+  // 720 permutations in 2048 slots take 36kb, the whole table stays in L1/L2 and a probe is the next slot
+  // of the same arrays instead of a pointer chase to another object.
   static final class InputSet {
 
-    // Bigger bucket size less collisions, but you have to find a sweet spot otherwise it becomes slower.
-    private static final int SIZE = 1 << 18; // 256kb
+    private static final int BITS = 11;
+    private static final int SIZE = 1 << BITS; // load factor ~0.35 with 720 entries, misses end in 1-2 probes
     private static final int BITMASK = SIZE - 1;
-    private final TokenizedSearchInput[] values = new TokenizedSearchInput[SIZE];
+    private final short[] firstShorts = new short[SIZE]; // 0 is an empty slot, stored inputs always start with ';'
+    private final long[] firstLongs = new long[SIZE];
+    private final long[] secondLongs = new long[SIZE];
 
-    private static int hashBucket(int hash) {
-      hash = hash ^ (hash >>> 16); // naive bit spreading but surprisingly decreases collision :)
-      return hash & BITMASK; // fast modulo, to find bucket
+    private static int slot(int hash) {
+      return (hash * 0x9E3779B9) >>> (32 - BITS); // fibonacci hashing, top bits are mixed the best
     }
 
     void add(TokenizedSearchInput input) {
-      final int bucket = hashBucket(input.hashCode());
-      TokenizedSearchInput existing = this.values[bucket];
-      if (existing == null) {
-        this.values[bucket] = input;
-        return;
-      }
-      // collision, linear probing to find a slot
-      // NOTE: here we don't do equals check on purpose since we don't add the same input twice
-      // If we do same input will be added twice but we don't, never :)
-      while (existing.next != null) {
-        existing = existing.next;
+      int slot = slot(input.hashCode());
+      while (this.firstShorts[slot] != 0) { // linear probing to find a free slot
+        if (matches(slot, input)) return; // repeated numbers give the same permutation more than once
+        slot = (slot + 1) & BITMASK;
       }
-      existing.next = input;
+      this.firstShorts[slot] = input.firstShort;
+      this.firstLongs[slot] = input.firstLong;
+      this.secondLongs[slot] = input.secondLong;
     }
 
     boolean contains(TokenizedSearchInput input) {
-      final int bucket = hashBucket(input.hashCode());
-      TokenizedSearchInput existing = this.values[bucket];
-      if (existing == null) {
-        return false;
+      if (METRICS) input.lookups++;
+      int slot = slot(input.hashCode());
+      while (this.firstShorts[slot] != 0) {
+        if (METRICS) input.probes++;
+        if (matches(slot, input)) return true;
+        slot = (slot + 1) & BITMASK;
       }
+      return false;
+    }
 
-      boolean contains = false;
-      while (!contains && existing != null) {
-        contains = existing.equals(input);
-        existing = existing.next;
-      }
-      return contains;
+    private boolean matches(int slot, TokenizedSearchInput input) {
+      return this.firstShorts[slot] == input.firstShort && this.firstLongs[slot] == input.firstLong && this.secondLongs[slot] == input.secondLong;
     }
   }
 
   static class TokenizedSearchInput {
 
-    // linked list for collisions
-    TokenizedSearchInput next;
+    // lookup counters with -Dmetrics, only the reused search input of a worker counts so they are per worker
+    long lookups;
+    long probes; // occupied slots compared until a match or an empty slot
 
     // split bytes into 2 + 8 + 8 (short, long, long)
     short firstShort;
@@ -169,43 +310,442 @@ public class Main {
     }
   }
 
-  static class RegionWorker extends Thread {
+  // size with an optional k, m or g suffix
+  static long parseSize(String size) {
+    final char unit = Character.toLowerCase(size.charAt(size.length() - 1));
+    final int shift = unit == 'k' ? 10 : unit == 'm' ? 20 : unit == 'g' ? 30 : 0;
+    return Long.parseLong(shift == 0 ? size : size.substring(0, size.length() - 1)) << shift;
+  }
+
+  // first line start at or after the offset, so chunks always hold whole lines
+  private static long nextLineStart(MemorySegment segment, long offset, long fileSize) {
+    long position = Math.min(offset, fileSize);
+    while (position > 0 && position < fileSize && segment.get(ValueLayout.JAVA_BYTE, position - 1) != '\n') {
+      position++;
+    }
+    return position;
+  }
+
+  // mmap and madvise of libc, the linker is only touched when a hint is asked for
+  static final class Native {
+
+    static final int MADV_RANDOM = 1;
+    static final int MADV_SEQUENTIAL = 2;
+    static final int MADV_WILLNEED = 3;
+    static final int MADV_HUGEPAGE = 14; // file mappings only get huge pages with read-only THP for filesystems
+    private static final int PROT_READ = 0x1;
+    private static final int MAP_SHARED = 0x01;
+    private static final int MAP_POPULATE = 0x8000;
+    private static final int O_RDONLY = 0;
+    private static final int O_DIRECT = System.getProperty("os.arch").equals("aarch64") ? 0x10000 : 0x4000;
+
+    private static final Linker LINKER = Linker.nativeLinker();
+    private static final MethodHandle MADVISE = function("madvise", FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_LONG, JAVA_INT));
+    private static final MethodHandle MMAP = function("mmap", FunctionDescriptor.of(ADDRESS, ADDRESS, JAVA_LONG, JAVA_INT, JAVA_INT, JAVA_INT, JAVA_LONG));
+    private static final MethodHandle OPEN = function("open", FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT));
+    private static final MethodHandle CLOSE = function("close", FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+    private static final MethodHandle PREAD = function("pread", FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS, JAVA_LONG, JAVA_LONG));
+    private static final MethodHandle GETPAGESIZE = function("getpagesize", FunctionDescriptor.of(JAVA_INT));
+    private static final long PAGE_SIZE = pageSize();
+
+    private static MethodHandle function(String name, FunctionDescriptor descriptor) {
+      return LINKER.downcallHandle(LINKER.defaultLookup().find(name)
+        .orElseThrow(() -> new UnsupportedOperationException(name + " is not found, memory hints need Linux")), descriptor);
+    }
+
+    private static long pageSize() {
+      try {
+        return (int) GETPAGESIZE.invokeExact();
+      }
+      catch (Throwable e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    // advice for [offset, offset + length) of a mapping, the start is rounded down to a page. Only a hint, false when refused
+    static boolean madvise(MemorySegment segment, long offset, long length, int advice) {
+      final long address = segment.address() + offset;
+      final long aligned = address & -PAGE_SIZE;
+      try {
+        return (int) MADVISE.invokeExact(MemorySegment.ofAddress(aligned), length + address - aligned, advice) == 0;
+      }
+      catch (Throwable e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    // descriptor for direct reads, kept open until the end
+    static int openDirect(Path file) throws IOException {
+      try (Arena arena = Arena.ofConfined()) {
+        final int fd = (int) OPEN.invokeExact(arena.allocateUtf8String(file.toString()), O_RDONLY | O_DIRECT);
+        if (fd < 0) {
+          throw new IOException("Cannot open " + file + " with O_DIRECT, the filesystem may not support it");
+        }
+        return fd;
+      }
+      catch (IOException e) {
+        throw e;
+      }
+      catch (Throwable e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    // bytes read at the offset, less than the length only at the end of the file
+    static long pread(int fd, MemorySegment buffer, long length, long offset) throws IOException {
+      try {
+        long total = 0;
+        while (total < length) {
+          final long read = (long) PREAD.invokeExact(fd, buffer.asSlice(total), length - total, offset + total);
+          if (read < 0) {
+            throw new IOException("pread failed at offset " + (offset + total));
+          }
+          if (read == 0) break; // end of file
+          total += read;
+          if ((read & (ALIGNMENT - 1)) != 0) break; // direct reads are only short at the end of the file
+        }
+        return total;
+      }
+      catch (IOException e) {
+        throw e;
+      }
+      catch (Throwable e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    // same as FileChannel.map with MAP_POPULATE, the call returns when every page is in. Never unmapped like Arena.global()
+    static MemorySegment mapPopulated(Path file, long size) throws IOException {
+      try {
+        final int fd;
+        try (Arena arena = Arena.ofConfined()) {
+          fd = (int) OPEN.invokeExact(arena.allocateUtf8String(file.toString()), O_RDONLY);
+        }
+        if (fd < 0) {
+          throw new IOException("Cannot open " + file);
+        }
+        try {
+          final MemorySegment address = (MemorySegment) MMAP.invokeExact(MemorySegment.NULL, size, PROT_READ, MAP_SHARED | MAP_POPULATE, fd, 0L);
+          if (address.address() == -1) { // MAP_FAILED
+            throw new IOException("Cannot map " + file);
+          }
+          return address.reinterpret(size);
+        }
+        finally {
+          if ((int) CLOSE.invokeExact(fd) != 0) { // the mapping stays either way, only the descriptor leaks
+            System.err.println("close of " + file + " failed, its descriptor stays open");
+          }
+        }
+      }
+      catch (IOException e) {
+        throw e;
+      }
+      catch (Throwable e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+  private static final MemorySegment NO_TAG = MemorySegment.ofArray(new byte[0]);
+
+  // a mapped pool file, it takes [base, base + size) of one global range that all workers claim chunks from.
+  // Bases are chunk aligned, so a chunk never spans two shards and small shards are balanced as well as big ones.
+  static final class Shard {
+
+    final MemorySegment segment; // null when it's read instead of mapped
+    final long size;
+    final long base;
+    final MemorySegment tag; // "shard;" in front of its winners
+    final FileChannel channel; // for -Dio=pread
+    final int fd; // for -Dio=direct
+
+    Shard(MemorySegment segment, long size, long base, MemorySegment tag) {
+      this(segment, size, base, tag, null, -1);
+    }
+
+    Shard(MemorySegment segment, long size, long base, MemorySegment tag, FileChannel channel, int fd) {
+      this.segment = segment;
+      this.size = size;
+      this.base = base;
+      this.tag = tag;
+      this.channel = channel;
+      this.fd = fd;
+    }
+  }
+
+  // an aligned read buffer of the prefetch ring, holds a claimed chunk and a bit around it
+  static final class ReadBuffer {
 
     final MemorySegment segment;
-    final long start;
-    final long end;
+    Shard shard;
+    long offset; // file offset of the first byte, aligned
+    long length; // bytes read
+    long chunkStart; // file offset of the claimed chunk
+
+    ReadBuffer(MemorySegment segment) {
+      this.segment = segment;
+    }
+  }
+
+  private static final ReadBuffer NO_MORE_CHUNKS = new ReadBuffer(null);
+
+  // shared by all readers, every read takes a slot of its size in time at READ_RATE
+  private static final AtomicLong readSlots = new AtomicLong(System.nanoTime());
+
+  private static void throttle(long bytes) {
+    final long now = System.nanoTime();
+    final long cost = (long) (bytes * 1e9 / READ_RATE);
+    final long begin = Math.max(readSlots.getAndUpdate(slot -> Math.max(slot, now) + cost), now);
+    if (begin > now) {
+      LockSupport.parkNanos(begin - now);
+    }
+  }
+
+  // Claims chunks for one worker and reads them into the free buffers of its ring, so the next chunk is
+  // on its way while the current one is scanned. I/O size is the chunk size, I/O depth is one read per worker.
+  static class Prefetcher extends Thread {
+
+    final RegionWorker worker;
+    final BlockingQueue<ReadBuffer> free;
+    final BlockingQueue<ReadBuffer> filled;
+    Exception failure;
+
+    Prefetcher(RegionWorker worker, BlockingQueue<ReadBuffer> free, BlockingQueue<ReadBuffer> filled) {
+      this.worker = worker;
+      this.free = free;
+      this.filled = filled;
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      try {
+        long claimed;
+        while ((claimed = this.worker.cursor.getAndAdd(this.worker.chunkSize)) < this.worker.rangeSize) { // claim the next chunk
+          final int index = Arrays.binarySearch(this.worker.bases, claimed);
+          final Shard shard = this.worker.shards[index >= 0 ? index : -index - 2];
+          final ReadBuffer buffer = this.free.take();
+          buffer.shard = shard;
+          buffer.chunkStart = claimed - shard.base;
+          // the byte before the chunk tells if it starts with a line, the overlap holds the line over the chunk end
+          buffer.offset = Math.max(buffer.chunkStart - 1, 0) & -ALIGNMENT;
+          final long length = Math.min(buffer.chunkStart + this.worker.chunkSize + OVERLAP, shard.size) - buffer.offset;
+          final long alignedLength = (length + ALIGNMENT - 1) & -ALIGNMENT;
+          if (READ_RATE > 0) {
+            throttle(alignedLength);
+          }
+          buffer.length = Math.min(read(shard, buffer, alignedLength), length);
+          if (buffer.length < length) {
+            throw new IOException("Pool is shorter than expected at offset " + (buffer.offset + buffer.length));
+          }
+          this.filled.put(buffer);
+        }
+      }
+      catch (Exception e) {
+        this.failure = e;
+      }
+      finally {
+        this.filled.add(NO_MORE_CHUNKS); // capacity is kept for it
+      }
+    }
+
+    private static long read(Shard shard, ReadBuffer buffer, long length) throws IOException {
+      if (shard.channel == null) {
+        return Native.pread(shard.fd, buffer.segment, length, buffer.offset);
+      }
+      final ByteBuffer target = buffer.segment.asSlice(0, length).asByteBuffer();
+      while (target.hasRemaining()) {
+        if (shard.channel.read(target, buffer.offset + target.position()) < 0) break; // positional, no shared file position
+      }
+      return target.position();
+    }
+  }
+
+  static class RegionWorker extends Thread {
+
+    final Shard[] shards;
+    final long[] bases; // sorted, to find the shard of a chunk
+    final long rangeSize; // end of the global range
+    final AtomicLong cursor; // start of the next chunk to claim, shared by all workers
+    final long chunkSize;
+
+    // shard of the claimed chunk
+    MemorySegment segment;
+    long fileSize;
+    long base;
+    MemorySegment tag = NO_TAG;
 
     final TokenizedSearchInput searchInput = new TokenizedSearchInput();
     final int inputLength;
+    final OutputBuffer output = new OutputBuffer();
 
-    public RegionWorker(MemorySegment memory, long start, long end, int inputLength) {
-      this.segment = memory;
-      this.start = start;
-      this.end = end;
+    // counters with -Dmetrics
+    long chunks;
+    long bytes;
+    long lines;
+    long winners;
+    long scanNanos;
+    long maxChunkNanos;
+
+    Exception failure; // read failure or a line over the overlap, main fails with it after the joins
+
+    public RegionWorker(MemorySegment memory, long fileSize, AtomicLong cursor, long chunkSize, int inputLength) {
+      this(new Shard[] { new Shard(memory, fileSize, 0, NO_TAG) }, cursor, chunkSize, inputLength);
+    }
+
+    public RegionWorker(Shard[] shards, AtomicLong cursor, long chunkSize, int inputLength) {
+      this.shards = shards;
+      this.bases = new long[shards.length];
+      for (int i = 0; i < shards.length; i++) {
+        this.bases[i] = shards[i].base;
+      }
+      final Shard last = shards[shards.length - 1];
+      this.rangeSize = last.base + last.size;
+      this.cursor = cursor;
+      this.chunkSize = chunkSize;
       this.inputLength = inputLength;
+      select(shards[0]);
+    }
+
+    private void select(Shard shard) {
+      this.segment = shard.segment;
+      this.fileSize = shard.size;
+      this.base = shard.base;
+      this.tag = shard.tag;
+    }
+
+    private void check(long lineBreakPos) {
+      if (METRICS) this.lines++;
+      if (compare(this.segment, lineBreakPos, this.searchInput, this.inputLength)) { // found a match
+        final long start = findPreviousLinebreak(this.segment, lineBreakPos - 1) + 1;
+        final long end = lineBreakPos - this.inputLength;
+        this.output.append(this.tag, this.segment, start, end, this.base + start);
+        if (METRICS) this.winners++;
+      }
     }
 
     @Override
     public void run() {
-      // System.out.printf("Thread: %s, segment: [%d, %d]%n", Thread.currentThread().getName(), this.start, this.end);
-      // final byte lastByte = this.segment.get(ValueLayout.JAVA_BYTE, this.end);
+      if (!MAPPED) {
+        try {
+          runBuffered();
+        }
+        catch (Exception e) {
+          this.failure = e;
+        }
+        return;
+      }
+      long claimed;
+      while ((claimed = this.cursor.getAndAdd(this.chunkSize)) < this.rangeSize) { // claim the next chunk
+        if (claimed - this.base >= this.fileSize || claimed < this.base) { // chunk of another shard
+          final int index = Arrays.binarySearch(this.bases, claimed);
+          select(this.shards[index >= 0 ? index : -index - 2]);
+        }
+        final long chunkStart = claimed - this.base;
+        final long start = nextLineStart(this.segment, chunkStart, this.fileSize);
+        final long end = nextLineStart(this.segment, chunkStart + this.chunkSize, this.fileSize);
+        if (WILLNEED && start < end) {
+          Native.madvise(this.segment, start, end - start, Native.MADV_WILLNEED);
+        }
+        scanChunk(start, end);
+      }
+    }
+
+    // -Dio=pread and -Dio=direct, chunks come from the prefetch ring of this worker and are scanned in the buffer
+    void runBuffered() throws Exception {
+      final BlockingQueue<ReadBuffer> free = new ArrayBlockingQueue<>(PREFETCH);
+      final BlockingQueue<ReadBuffer> filled = new ArrayBlockingQueue<>(PREFETCH + 1);
+      final long bufferSize = (this.chunkSize + OVERLAP + 2L * ALIGNMENT) & -ALIGNMENT;
+      for (int i = 0; i < PREFETCH; i++) {
+        free.add(new ReadBuffer(Arena.ofAuto().allocate(bufferSize, ALIGNMENT)));
+      }
+      final Prefetcher prefetcher = new Prefetcher(this, free, filled);
+      prefetcher.start();
+
+      ReadBuffer buffer;
+      while ((buffer = filled.take()) != NO_MORE_CHUNKS) {
+        // positions are in the buffer from here, the base keeps the file offsets of the names for -Dordered
+        this.segment = buffer.segment;
+        this.fileSize = buffer.length;
+        this.base = buffer.shard.base + buffer.offset;
+        this.tag = buffer.shard.tag;
+        final long chunkStart = buffer.chunkStart - buffer.offset;
+        final long start = nextLineStart(this.segment, chunkStart, this.fileSize);
+        final long end = nextLineStart(this.segment, chunkStart + this.chunkSize, this.fileSize);
+        if (end == this.fileSize && buffer.offset + buffer.length < buffer.shard.size) {
+          throw new IllegalStateException("Line is longer than " + OVERLAP + " bytes at offset " + (buffer.offset + chunkStart + this.chunkSize));
+        }
+        scanChunk(start, end);
+        free.put(buffer); // back to the reader
+      }
+      if (prefetcher.failure != null) {
+        throw new IOException("Reading the pool failed", prefetcher.failure);
+      }
+    }
+
+    private void scanChunk(long start, long end) {
+      if (METRICS) {
+        scanMetered(start, end);
+      }
+      else if (FORWARD) {
+        scanForward(start, end);
+      }
+      else {
+        scan(start, end);
+      }
+    }
+
+    private void scanMetered(long start, long end) {
+      final ChunkScanEvent event = new ChunkScanEvent();
+      final long lines = this.lines;
+      final long winners = this.winners;
+      event.begin();
+      final long begin = System.nanoTime();
+      if (FORWARD) {
+        scanForward(start, end);
+      }
+      else {
+        scan(start, end);
+      }
+      final long elapsed = System.nanoTime() - begin;
+      event.end();
+      this.chunks++;
+      this.bytes += end - start;
+      this.scanNanos += elapsed;
+      this.maxChunkNanos = Math.max(this.maxChunkNanos, elapsed);
+      if (event.shouldCommit()) {
+        event.start = start;
+        event.size = end - start;
+        event.lines = this.lines - lines;
+        event.winners = this.winners - winners;
+        event.commit();
+      }
+    }
+
+    void appendMetrics(StringBuilder json) {
+      Main.appendMetrics(json, this.chunks, this.bytes, this.lines, this.searchInput.lookups, this.searchInput.probes,
+        this.winners, this.scanNanos, this.maxChunkNanos);
+    }
+
+    // scan a line aligned chunk
+    void scan(long start, long end) {
+      // System.out.printf("Thread: %s, segment: [%d, %d]%n", Thread.currentThread().getName(), start, end);
+      // final byte lastByte = this.segment.get(ValueLayout.JAVA_BYTE, end);
       // System.out.printf("Thread: %s, last byte is line break?: %s%n", Thread.currentThread().getName(), lastByte == '\n');
       // System.out.printf("Thread: %s, last byte: %s%n", Thread.currentThread().getName(), new String(new byte[] { lastByte }));
       long word;
-      long relativePos = -1;
-      long lineBreakPos = this.end;
-      long position = this.end; // scan the segment reverse
-      final long loopCount = (this.end - this.start) / 8; // 8 bytes at a time
+      // the last line of the file may have no linebreak, then the chunk end is its line end
+      long relativePos = start < end && this.segment.get(ValueLayout.JAVA_BYTE, end - 1) != '\n' ? 0 : 8;
+      long lineBreakPos = end;
+      long position = end; // scan the segment reverse
+      final long loopCount = (end - start) / 8; // 8 bytes at a time
       for (int i = 0; i < loopCount; i++) {
-        // there maybe redundant checks here because the linebreak position is not always correct
-        // when no linebreak match relativePos will be 8. In such cases, line break positions will be duplicated.
-        // Therefore, this can produce duplicated winners.
-        // However, instead of adding more branches in hotspot we leave it here since compiler can optimize it much better,
-        // and it's faster due to instruction level parallelism
-        if (relativePos !=8 && compare(this.segment, lineBreakPos, this.searchInput, this.inputLength)) { // found a match
-          final long start = findPreviousLinebreak(this.segment, lineBreakPos - 1) + 1;
-          final long end = lineBreakPos - this.inputLength;
-          printName(this.segment, start, end);
+        // check of the linebreak found in the previous iteration, delayed on purpose so that the compare and
+        // the next word load can overlap thanks to instruction level parallelism.
+        // Chunks start and end at line starts, so each linebreak belongs to exactly one word of one chunk,
+        // no line is evaluated twice. The last linebreak is checked after the loop.
+        if (relativePos != 8) {
+          check(lineBreakPos);
         }
 
         word = this.segment.get(ValueLayout.JAVA_LONG_UNALIGNED, position - 8); // read a word of 8 bytes each time
@@ -214,6 +754,39 @@ public class Main {
 
         position -= 8; // move pointer 8 bytes to the back
       }
+      if (relativePos != 8) { // the last linebreak found
+        check(lineBreakPos);
+      }
+      // less than a word left at the chunk start, there can be one linebreak at most
+      while (--position >= start) {
+        if (this.segment.get(ValueLayout.JAVA_BYTE, position) == '\n') {
+          check(position);
+        }
+      }
+    }
+
+    // forward variant of scan with -Dforward=true, same checks in ascending order.
+    // Lines are longer than a word, so a word holds one linebreak at most as in the reverse loop.
+    void scanForward(long start, long end) {
+      long position = start;
+      final long loopCount = (end - start) / 8; // 8 bytes at a time
+      for (int i = 0; i < loopCount; i++) {
+        final long word = this.segment.get(ValueLayout.JAVA_LONG_UNALIGNED, position);
+        final int relativePos = linebreakPos(word); // linebreak position in the word, if not returns 8
+        if (relativePos != 8) {
+          check(position + relativePos);
+        }
+        position += 8;
+      }
+      for (; position < end; position++) { // less than a word left at the chunk end
+        if (this.segment.get(ValueLayout.JAVA_BYTE, position) == '\n') {
+          check(position);
+        }
+      }
+      // the last line of the file may have no linebreak, then the chunk end is its line end
+      if (start < end && this.segment.get(ValueLayout.JAVA_BYTE, end - 1) != '\n') {
+        check(end);
+      }
     }
   }
 
@@ -253,35 +826,178 @@ public class Main {
     // Since we do it only once at startup it's no impact on performance
     generatePermutations(args);
 
-    var concurrency = 2 * Runtime.getRuntime().availableProcessors();
-    final long fileSize = Files.size(DATA_FILE);
-    long regionSize = fileSize / concurrency;
+    var concurrency = WORKERS;
+    final List<Path> files = SHARDS == null ? List.of(DATA_FILE) : findShards(SHARDS);
+    long fileSize = 0;
+    for (Path file : files) {
+      fileSize += Files.size(file);
+    }
+    long chunkSize = CHUNK_SIZE;
 
     if (fileSize <= 1 << 20) { // small file (under 1mb), run in single-thread mode
       concurrency = 1;
-      regionSize = fileSize;
+      chunkSize = Math.max(fileSize, 1);
     }
 
     System.out.println("Concurrency: " + concurrency);
+    if (SHARDS != null) {
+      System.out.println("Shards: " + files.size());
+    }
+    if (!MAPPED) {
+      System.out.println("IO: " + IO);
+    }
     System.out.println("File size: " + fileSize);
-    System.out.println("Region size: " + regionSize);
+    System.out.println("Chunk size: " + chunkSize);
 
-    long segmentStart = 0;
-    final FileChannel channel = (FileChannel) Files.newByteChannel(DATA_FILE, StandardOpenOption.READ);
-    final MemorySegment memory = channel.map(MapMode.READ_ONLY, segmentStart, fileSize, Arena.global());
+    final Shard[] shards = mapShards(files, chunkSize);
 
     final int inputLength = (";" + String.join(";", args)).getBytes().length;
-    if (concurrency == 1) { // shortcut for single-thread mode
-      new RegionWorker(memory, segmentStart, fileSize, inputLength).start();
-      return;
+    // every worker keeps claiming chunks until all shards are done, a slow chunk only holds up its own worker
+    final AtomicLong cursor = new AtomicLong();
+    final RegionWorker[] workers = new RegionWorker[concurrency];
+    for (int i = 0; i < concurrency; i++) {
+      workers[i] = new RegionWorker(shards, cursor, chunkSize, inputLength);
+      workers[i].start();
+    }
+
+    // scan threads never print, all names are written here once
+    final OutputBuffer[] outputs = new OutputBuffer[concurrency];
+    for (int i = 0; i < concurrency; i++) {
+      workers[i].join();
+      outputs[i] = workers[i].output;
+    }
+    // the chunks of a failed worker are not scanned, winners of the others alone are no result
+    for (RegionWorker worker : workers) {
+      if (worker.failure != null) {
+        throw new IllegalStateException("Scanning the pool failed", worker.failure);
+      }
+    }
+    System.out.flush();
+    writeOutputs(outputs, new FileOutputStream(FileDescriptor.out).getChannel());
+
+    if (METRICS) {
+      printMetrics(workers);
+    }
+  }
+
+  // the directory itself, or for a glob the directory before the first wildcard, shards are walked from there
+  private static Path shardRoot(String shards) {
+    if (Files.isDirectory(Path.of(shards))) {
+      return Path.of(shards);
     }
+    final int slash = shards.replaceAll("[*?\\[{].*", "").lastIndexOf('/');
+    return Path.of(slash < 0 ? "." : shards.substring(0, Math.max(slash, 1)));
+  }
+
+  // path under the walked directory, so shards with the same name in different directories stay apart
+  private static String shardTag(Path file) {
+    return shardRoot(SHARDS).relativize(file) + ";";
+  }
+
+  // files of a directory, or the files matching a glob like regions/*.csv, in name order
+  private static List<Path> findShards(String shards) throws IOException {
+    final Path root = shardRoot(shards);
+    PathMatcher matcher = path -> true;
+    int depth = 1;
+    if (!Files.isDirectory(Path.of(shards))) {
+      final int slash = shards.replaceAll("[*?\\[{].*", "").lastIndexOf('/');
+      matcher = FileSystems.getDefault().getPathMatcher("glob:" + (slash < 0 ? "./" + shards : shards));
+      depth = shards.contains("**") ? Integer.MAX_VALUE : shards.substring(slash + 1).split("/").length;
+    }
+    final List<Path> files = new ArrayList<>();
+    try (Stream<Path> paths = Files.walk(root, depth)) {
+      for (Path path : (Iterable<Path>) paths.sorted()::iterator) {
+        if (Files.isRegularFile(path) && matcher.matches(path)) {
+          files.add(path);
+        }
+      }
+    }
+    if (files.isEmpty()) {
+      throw new IllegalArgumentException("No pool files found for shards: " + shards);
+    }
+    return files;
+  }
+
+  // every file is mapped once, empty ones are left out as they have no chunks
+  private static Shard[] mapShards(List<Path> files, long chunkSize) throws IOException {
+    final List<Shard> shards = new ArrayList<>();
+    long base = 0;
+    for (Path file : files) {
+      final FileChannel channel = (FileChannel) Files.newByteChannel(file, StandardOpenOption.READ);
+      final long size = channel.size();
+      if (size == 0) continue;
+      final MemorySegment tag = SHARDS == null ? NO_TAG : MemorySegment.ofArray(shardTag(file).getBytes(StandardCharsets.UTF_8));
+      switch (IO) {
+        case "mmap" -> {
+          final MemorySegment memory = POPULATE ? Native.mapPopulated(file, size) : channel.map(MapMode.READ_ONLY, 0, size, Arena.global());
+          adviseMapping(memory, size);
+          shards.add(new Shard(memory, size, base, tag));
+        }
+        case "pread" -> shards.add(new Shard(null, size, base, tag, channel, -1));
+        case "direct" -> {
+          shards.add(new Shard(null, size, base, tag, null, Native.openDirect(file)));
+          channel.close();
+        }
+        default -> throw new IllegalArgumentException("Unknown io: " + IO + ", expected mmap, pread or direct");
+      }
+      base += (size + chunkSize - 1) / chunkSize * chunkSize; // next shard starts with a new chunk
+    }
+    if (shards.isEmpty()) { // nothing to claim
+      shards.add(new Shard(NO_TAG, 0, 0, NO_TAG));
+    }
+    return shards.toArray(Shard[]::new);
+  }
+
+  // hints kept by the kernel for the whole mapping, willneed is given per chunk instead
+  private static void adviseMapping(MemorySegment memory, long size) {
+    for (String advice : ADVICE) {
+      final int value = switch (advice) {
+        case "", "willneed" -> -1;
+        case "sequential" -> Native.MADV_SEQUENTIAL;
+        case "random" -> Native.MADV_RANDOM;
+        case "hugepage" -> Native.MADV_HUGEPAGE;
+        default -> throw new IllegalArgumentException("Unknown advice: " + advice + ", expected sequential, random, willneed or hugepage");
+      };
+      if (value >= 0 && !Native.madvise(memory, 0, size, value)) {
+        System.err.println("madvise " + advice + " is refused, scanning without it");
+      }
+    }
+  }
+
+  // one json object of scan counters
+  private static void appendMetrics(StringBuilder json, long chunks, long bytes, long lines, long lookups, long probes,
+                                    long winners, long scanNanos, long maxChunkNanos) {
+    json.append("{\"chunks\": ").append(chunks)
+      .append(", \"bytes\": ").append(bytes)
+      .append(", \"lines\": ").append(lines)
+      .append(", \"lookups\": ").append(lookups)
+      .append(", \"probes\": ").append(probes)
+      .append(", \"winners\": ").append(winners)
+      .append(", \"scanNanos\": ").append(scanNanos)
+      .append(", \"maxChunkNanos\": ").append(maxChunkNanos)
+      .append('}');
+  }
 
-    // calculate boundaries for regions
-    for (int i = 0; i < concurrency - 1; i++) {
-      new RegionWorker(memory, segmentStart, segmentStart + regionSize, inputLength).start(); // start processing
-      segmentStart += regionSize;
+  // merged counters and the counters of each worker, as json on stderr so that the output stays the same
+  private static void printMetrics(RegionWorker[] workers) {
+    long chunks = 0, bytes = 0, lines = 0, lookups = 0, probes = 0, winners = 0, scanNanos = 0, maxChunkNanos = 0;
+    final StringBuilder json = new StringBuilder("{\"workers\": [");
+    for (int i = 0; i < workers.length; i++) {
+      final RegionWorker worker = workers[i];
+      if (i > 0) json.append(", ");
+      worker.appendMetrics(json);
+      chunks += worker.chunks;
+      bytes += worker.bytes;
+      lines += worker.lines;
+      lookups += worker.searchInput.lookups;
+      probes += worker.searchInput.probes;
+      winners += worker.winners;
+      scanNanos += worker.scanNanos;
+      maxChunkNanos = Math.max(maxChunkNanos, worker.maxChunkNanos);
     }
-    new RegionWorker(memory, segmentStart, fileSize, inputLength).start(); // last piece
+    json.append("], \"total\": ");
+    appendMetrics(json, chunks, bytes, lines, lookups, probes, winners, scanNanos, maxChunkNanos);
+    System.err.println(json.append('}'));
   }
 
 }
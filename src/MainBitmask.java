@@ -0,0 +1,391 @@
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Order independent solution without the permutation lookup table.
+ *
+ * Every ticket is parsed into a 49-bit mask (bit n = number n), the draw is turned into the same mask once at startup.
+ * A winner is then a single long compare, partial matches are just Long.bitCount(ticket & draw).
+ * It doesn't care about the digit count either, "05" and "5" end up in the same bit.
+ *
+ * Run with -Dmatch=5 to print tickets matching exactly 5 numbers, default is 6.
+ *
+ * Batch mode: run with -Ddraws=draws.txt (one draw per line) to check every line against all draws in a single pass.
+ * Output is grouped by draw and printed after all workers are done.
+ *
+ * Testing on JDK 21.0.5-graal JIT compiler (no native), limiting to 8 threads.
+ * Big thanks to Mike, for bringing this challenge.
+ *
+ * Follow me at: github.com/yavuztas
+ */
+public class MainBitmask {
+
+  private static final Path DATA_FILE = Path.of("pool.csv");
+
+  private static final int MATCH_NUMBERS = Integer.getInteger("match", 6); // how many numbers to match for a winner
+  private static final boolean EXACT_MATCH = MATCH_NUMBERS == 6;
+
+  // numeric tail of a line is 18 bytes at most (6 x ";dd"), three words always cover it
+  private static final int TAIL_BYTES = 24;
+
+  private static final Path DRAWS_FILE = System.getProperty("draws") != null ? Path.of(System.getProperty("draws")) : null;
+
+  private static void printName(MemorySegment segment, long start, long end) {
+    final ByteBuffer buffer = segment.asSlice(start, end - start).asByteBuffer();
+    final byte[] bytes = new byte[(int) (end - start)];
+    buffer.get(bytes);
+    System.out.println(new String(bytes, UTF_8));
+  }
+
+  private static long findPreviousLinebreak(MemorySegment segment, long offset) {
+    long position = offset;
+    while (segment.get(ValueLayout.JAVA_BYTE, position) != '\n') { // read until a linebreak
+      position--;
+      if (position == 0) // no newline found
+        return -1;
+    }
+    return position;
+  }
+
+  private static long findNextSemicolon(MemorySegment segment, long offset) {
+    long position = offset;
+    while (segment.get(ValueLayout.JAVA_BYTE, position) != ';') { // names cannot contain ';', first one ends the name
+      position++;
+    }
+    return position;
+  }
+
+  // hasvalue & haszero
+  // adapted from https://graphics.stanford.edu/~seander/bithacks.html#ZeroInWord
+  // returns [0-7] otherwise 8 when no match
+  private static int linebreakPos(long word) {
+    // // hasvalue
+    final long hasVal = word ^ 0xa0a0a0a0a0a0a0aL; // semicolon pattern
+    return Long.numberOfTrailingZeros(((hasVal - 0x0101010101010101L) & ~hasVal & 0x8080808080808080L)) >>> 3; // haszero
+  }
+
+  // Parse 6 numbers in front of the linebreak into a bitmask, without any data dependent branch.
+  // The tail is loaded into 3 words and shifted in registers, so the top byte of w0 is always the ones digit of the next number.
+  // Byte below it is either the tens digit or ';', we consume 2 or 3 bytes accordingly.
+  static long ticketMask(MemorySegment segment, long lineEnd) {
+    long w0 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 8);
+    long w1 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 16);
+    long w2 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 24);
+    long mask = 0;
+    for (int i = 0; i < 6; i++) {
+      final long ones = (w0 >>> 56) & 0xF;
+      final long tens = (w0 >>> 48) & 0xFF;
+      final long twoDigits = (tens - ';') >>> 63; // 1 when it's a digit, 0 when it's ';' since digits are below ';' in ascii
+      mask |= 1L << (ones + (twoDigits * 10 * (tens & 0xF)));
+      final int shift = (int) (16 + (twoDigits << 3)); // 2 or 3 bytes
+      w0 = (w0 << shift) | (w1 >>> (64 - shift));
+      w1 = (w1 << shift) | (w2 >>> (64 - shift));
+      w2 <<= shift;
+    }
+    return mask;
+  }
+
+  // Byte by byte version of the above, only for lines too close to the beginning of the file to read 3 words
+  static long ticketMaskSlow(MemorySegment segment, long lineEnd) {
+    long mask = 0;
+    long pos = lineEnd - 1;
+    for (int i = 0; i < 6; i++) {
+      int number = segment.get(ValueLayout.JAVA_BYTE, pos) - '0';
+      final byte b = segment.get(ValueLayout.JAVA_BYTE, pos - 1);
+      if (b != ';') {
+        pos--; // skip tens digit
+        number += (b - '0') * 10;
+      }
+      pos -= 2;
+      mask |= 1L << number;
+    }
+    return mask;
+  }
+
+  static long drawMask(String[] input) {
+    long mask = 0;
+    for (String number : input) {
+      final int n = Integer.parseInt(number);
+      if (n < 1 || n > 49) {
+        throw new IllegalArgumentException("Numbers must be unique in [1-49]: " + Arrays.toString(input));
+      }
+      mask |= 1L << n;
+    }
+    if (input.length != 6 || Long.bitCount(mask) != 6) { // a repeated number sets the same bit
+      throw new IllegalArgumentException("Expected 6 unique numbers: " + Arrays.toString(input));
+    }
+    return mask;
+  }
+
+  // read draws, one per line, numbers separated by anything but digits, blank lines and '#' comments are skipped
+  static List<String[]> readDraws(Path file) throws IOException {
+    final List<String[]> draws = new ArrayList<>();
+    final List<String> lines = Files.readAllLines(file);
+    for (int i = 0; i < lines.size(); i++) {
+      final String line = lines.get(i).strip();
+      if (line.isEmpty() || line.startsWith("#")) continue;
+      // leading or trailing separators like in [1,2,3,4,5,6] leave empty tokens
+      final String[] numbers = Arrays.stream(line.split("[^0-9]+")).filter(n -> !n.isEmpty()).toArray(String[]::new);
+      try {
+        drawMask(numbers);
+      }
+      catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException(file + ":" + (i + 1) + ": " + e.getMessage());
+      }
+      draws.add(numbers);
+    }
+    return draws;
+  }
+
+  // Open addressing table to find the draw of a ticket mask in o(1), draws are unique masks here
+  static final class DrawTable {
+
+    private final long[] keys;
+    private final int[] values;
+    private final int bitmask;
+
+    DrawTable(long[] masks) {
+      final int size = Integer.highestOneBit(Math.max(masks.length * 4, 4) - 1) << 1; // keep it sparse, few draws anyway
+      this.keys = new long[size];
+      this.values = new int[size];
+      this.bitmask = size - 1;
+      for (int i = 0; i < masks.length; i++) {
+        int slot = slot(masks[i]);
+        while (this.keys[slot] != 0) { // 0 is never a valid mask
+          slot = (slot + 1) & this.bitmask;
+        }
+        this.keys[slot] = masks[i];
+        this.values[slot] = i;
+      }
+    }
+
+    private int slot(long mask) {
+      return (int) ((mask * 0x9E3779B97F4A7C15L) >>> 40) & this.bitmask; // fibonacci hashing
+    }
+
+    int indexOf(long mask) {
+      int slot = slot(mask);
+      long key;
+      while ((key = this.keys[slot]) != 0) {
+        if (key == mask) return this.values[slot];
+        slot = (slot + 1) & this.bitmask;
+      }
+      return -1;
+    }
+  }
+
+  // first line start at or after the offset, so regions always hold whole lines
+  private static long nextLineStart(MemorySegment segment, long offset, long fileSize) {
+    long position = Math.min(offset, fileSize);
+    while (position < fileSize && segment.get(ValueLayout.JAVA_BYTE, position - 1) != '\n') {
+      position++;
+    }
+    return position;
+  }
+
+  static class RegionWorker extends Thread {
+
+    final MemorySegment segment;
+    final long start;
+    final long end;
+
+    final long drawMask;
+
+    public RegionWorker(MemorySegment memory, long start, long end, long drawMask) {
+      this.segment = memory;
+      this.start = start;
+      this.end = end;
+      this.drawMask = drawMask;
+    }
+
+    long ticket(long lineBreakPos) {
+      return lineBreakPos >= TAIL_BYTES ? ticketMask(this.segment, lineBreakPos) : ticketMaskSlow(this.segment, lineBreakPos);
+    }
+
+    void check(long lineBreakPos) {
+      final long ticket = ticket(lineBreakPos);
+      if (EXACT_MATCH ? ticket == this.drawMask : Long.bitCount(ticket & this.drawMask) == MATCH_NUMBERS) { // found a match
+        final long start = findPreviousLinebreak(this.segment, lineBreakPos - 1) + 1;
+        final long end = findNextSemicolon(this.segment, start);
+        printName(this.segment, start, end);
+      }
+    }
+
+    @Override
+    public void run() {
+      long word;
+      // the last line of the file may have no linebreak, then the region end is its line end
+      long relativePos = this.start < this.end && this.segment.get(ValueLayout.JAVA_BYTE, this.end - 1) != '\n' ? 0 : 8;
+      long lineBreakPos = this.end;
+      long position = this.end; // scan the segment reverse
+      final long loopCount = (this.end - this.start) / 8; // 8 bytes at a time
+      for (int i = 0; i < loopCount; i++) {
+        // check of the linebreak found in the previous iteration, delayed on purpose so that the compare and
+        // the next word load can overlap thanks to instruction level parallelism.
+        // Regions start and end at line starts, so each linebreak belongs to exactly one word of one region,
+        // no line is evaluated twice. The last linebreak is checked after the loop.
+        if (relativePos != 8) {
+          check(lineBreakPos);
+        }
+
+        word = this.segment.get(ValueLayout.JAVA_LONG_UNALIGNED, position - 8); // read a word of 8 bytes each time
+        relativePos = linebreakPos(word); // linebreak position in the word, if not returns 8
+        lineBreakPos = position - 8 + relativePos;
+
+        position -= 8; // move pointer 8 bytes to the back
+      }
+      if (relativePos != 8) { // the last linebreak found
+        check(lineBreakPos);
+      }
+      // less than a word left at the region start, there can be one linebreak at most
+      while (--position >= this.start) {
+        if (this.segment.get(ValueLayout.JAVA_BYTE, position) == '\n') {
+          check(position);
+        }
+      }
+    }
+  }
+
+  // Checks each line against all draws, the line is parsed once no matter how many draws we have
+  static class BatchWorker extends RegionWorker {
+
+    final DrawTable drawTable;
+    final long[] drawMasks;
+    final ByteArrayOutputStream[] outputs; // per unique draw, flushed by main thread after join
+
+    public BatchWorker(MemorySegment memory, long start, long end, long[] drawMasks) {
+      super(memory, start, end, 0);
+      this.drawMasks = drawMasks;
+      this.drawTable = EXACT_MATCH ? new DrawTable(drawMasks) : null;
+      this.outputs = new ByteArrayOutputStream[drawMasks.length];
+    }
+
+    @Override
+    void check(long lineBreakPos) {
+      final long ticket = ticket(lineBreakPos);
+      if (EXACT_MATCH) {
+        final int index = this.drawTable.indexOf(ticket);
+        if (index != -1) {
+          collect(index, lineBreakPos);
+        }
+        return;
+      }
+      for (int i = 0; i < this.drawMasks.length; i++) {
+        if (Long.bitCount(ticket & this.drawMasks[i]) == MATCH_NUMBERS) {
+          collect(i, lineBreakPos);
+        }
+      }
+    }
+
+    private void collect(int index, long lineBreakPos) {
+      if (this.outputs[index] == null) {
+        this.outputs[index] = new ByteArrayOutputStream();
+      }
+      final long start = findPreviousLinebreak(this.segment, lineBreakPos - 1) + 1;
+      final long end = findNextSemicolon(this.segment, start);
+      final byte[] bytes = this.segment.asSlice(start, end - start).toArray(ValueLayout.JAVA_BYTE);
+      this.outputs[index].write(bytes, 0, bytes.length);
+      this.outputs[index].write('\n');
+    }
+  }
+
+  private static void runBatch(MemorySegment memory, long fileSize, int concurrency, long regionSize) throws Exception {
+    final List<String[]> draws = readDraws(DRAWS_FILE);
+    System.out.println("Draws: " + draws.size());
+
+    // same draw can be given twice, workers only see unique masks
+    final long[] masks = new long[draws.size()];
+    final int[] uniqueIndex = new int[draws.size()];
+    int uniqueCount = 0;
+    for (int i = 0; i < draws.size(); i++) {
+      final long mask = drawMask(draws.get(i));
+      int j = 0;
+      while (j < uniqueCount && masks[j] != mask) j++;
+      if (j == uniqueCount) masks[uniqueCount++] = mask;
+      uniqueIndex[i] = j;
+    }
+    final long[] drawMasks = Arrays.copyOf(masks, uniqueCount);
+
+    final BatchWorker[] workers = new BatchWorker[concurrency];
+    long segmentStart = 0;
+    for (int i = 0; i < concurrency - 1; i++) {
+      final long segmentEnd = nextLineStart(memory, segmentStart + regionSize, fileSize);
+      workers[i] = new BatchWorker(memory, segmentStart, segmentEnd, drawMasks);
+      segmentStart = segmentEnd;
+    }
+    workers[concurrency - 1] = new BatchWorker(memory, segmentStart, fileSize, drawMasks); // last piece
+    for (BatchWorker worker : workers) worker.start();
+    for (BatchWorker worker : workers) worker.join();
+
+    final OutputStream out = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 17);
+    for (int i = 0; i < draws.size(); i++) {
+      out.write(("Draw: " + Arrays.toString(draws.get(i)) + "\n").getBytes(UTF_8));
+      for (BatchWorker worker : workers) {
+        final ByteArrayOutputStream output = worker.outputs[uniqueIndex[i]];
+        if (output != null) output.writeTo(out);
+      }
+    }
+    out.flush();
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.out.println("Input: " + Arrays.toString(args));
+    // single long for the whole draw, no lookup table needed
+    final long drawMask = DRAWS_FILE == null ? drawMask(args) : 0;
+
+    var concurrency = 2 * Runtime.getRuntime().availableProcessors();
+    final long fileSize = Files.size(DATA_FILE);
+    long regionSize = fileSize / concurrency;
+
+    if (fileSize <= 1 << 20) { // small file (under 1mb), run in single-thread mode
+      concurrency = 1;
+      regionSize = fileSize;
+    }
+
+    System.out.println("Concurrency: " + concurrency);
+    System.out.println("File size: " + fileSize);
+    System.out.println("Region size: " + regionSize);
+
+    long segmentStart = 0;
+    final FileChannel channel = (FileChannel) Files.newByteChannel(DATA_FILE, StandardOpenOption.READ);
+    final MemorySegment memory = channel.map(MapMode.READ_ONLY, segmentStart, fileSize, Arena.global());
+
+    if (DRAWS_FILE != null) { // one pass for all draws
+      runBatch(memory, fileSize, concurrency, regionSize);
+      return;
+    }
+
+    if (concurrency == 1) { // shortcut for single-thread mode
+      new RegionWorker(memory, segmentStart, fileSize, drawMask).start();
+      return;
+    }
+
+    // calculate boundaries for regions, snapped to line starts
+    for (int i = 0; i < concurrency - 1; i++) {
+      final long segmentEnd = nextLineStart(memory, segmentStart + regionSize, fileSize);
+      new RegionWorker(memory, segmentStart, segmentEnd, drawMask).start(); // start processing
+      segmentStart = segmentEnd;
+    }
+    new RegionWorker(memory, segmentStart, fileSize, drawMask).start(); // last piece
+  }
+
+}
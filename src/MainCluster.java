@@ -0,0 +1,562 @@
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+
+/**
+ * Scatter-gather version of the bitmask solution, the pool is split over several worker JVMs.
+ *
+ * The coordinator cuts pool.csv (or -Dshards=dir|glob as in Main) into line aligned ranges of -DrangeSize=256m and
+ * listens on TCP, -Daddress=127.0.0.1:0 by default. Workers connect, get the draw and the shard paths once and then
+ * ask for one range after the other. Every worker maps the files itself and scans a range with all its cores,
+ * chunk by chunk as in Main, the names and the winner count go back to the coordinator.
+ * A range stays with the coordinator until its result is in, so when a worker dies or stops answering for
+ * -Dtimeout=600 seconds its range is given to the next worker asking for one.
+ *
+ * Run with -Dnodes=4 to start 4 worker JVMs on localhost, they get an equal share of the cores (-Dworkers).
+ * With -Dnodes=0 no worker is started, start them on other hosts with the pool at the same path:
+ *   java --enable-preview -Dcoordinator=host:port -cp ./bin MainCluster
+ * Names are printed range by range in file order, per node counters go to stderr.
+ * -DhaltAfter=2 makes the first local worker die after 2 ranges, to see the reassignment. -Dmatch=5 as in MainBitmask.
+ *
+ * Big thanks to Mike, for bringing this challenge.
+ *
+ * Follow me at: github.com/yavuztas
+ */
+public class MainCluster {
+
+  private static final Path DATA_FILE = Path.of("pool.csv");
+  private static final String SHARDS = System.getProperty("shards"); // a directory or a glob of pool files
+
+  private static final String COORDINATOR = System.getProperty("coordinator"); // host:port, set on worker JVMs
+  private static final String ADDRESS = System.getProperty("address", "127.0.0.1:0");
+  private static final int NODES = Integer.getInteger("nodes", 2);
+  private static final long RANGE_SIZE = parseSize(System.getProperty("rangeSize", "256m"));
+  private static final int TIMEOUT = Integer.getInteger("timeout", 600); // seconds a worker may take for a range
+  private static final int HALT_AFTER = Integer.getInteger("haltAfter", -1);
+
+  // threads of a worker JVM, chunks of a range are claimed from a shared cursor as in Main
+  private static final int WORKERS = Integer.getInteger("workers", Runtime.getRuntime().availableProcessors());
+  private static final long CHUNK_SIZE = parseSize(System.getProperty("chunkSize", "8m"));
+
+  private static final int MATCH_NUMBERS = Integer.getInteger("match", 6); // how many numbers to match for a winner
+  private static final boolean EXACT_MATCH = MATCH_NUMBERS == 6;
+
+  // numeric tail of a line is 18 bytes at most (6 x ";dd"), three words always cover it
+  private static final int TAIL_BYTES = 24;
+
+  private static final int DONE = -1; // shard index of the last message to a worker
+
+  // size with an optional k, m or g suffix
+  static long parseSize(String size) {
+    final char unit = Character.toLowerCase(size.charAt(size.length() - 1));
+    final int shift = unit == 'k' ? 10 : unit == 'm' ? 20 : unit == 'g' ? 30 : 0;
+    return Long.parseLong(shift == 0 ? size : size.substring(0, size.length() - 1)) << shift;
+  }
+
+  private static InetSocketAddress socketAddress(String address) {
+    final int colon = address.lastIndexOf(':');
+    return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+  }
+
+  private static long findPreviousLinebreak(MemorySegment segment, long offset) {
+    long position = offset;
+    while (segment.get(ValueLayout.JAVA_BYTE, position) != '\n') { // read until a linebreak
+      position--;
+      if (position == 0) // no newline found
+        return -1;
+    }
+    return position;
+  }
+
+  private static long findNextSemicolon(MemorySegment segment, long offset) {
+    long position = offset;
+    while (segment.get(ValueLayout.JAVA_BYTE, position) != ';') { // names cannot contain ';', first one ends the name
+      position++;
+    }
+    return position;
+  }
+
+  // first line start at or after the offset, so chunks always hold whole lines
+  private static long nextLineStart(MemorySegment segment, long offset, long fileSize) {
+    long position = Math.min(offset, fileSize);
+    while (position > 0 && position < fileSize && segment.get(ValueLayout.JAVA_BYTE, position - 1) != '\n') {
+      position++;
+    }
+    return position;
+  }
+
+  // same as above without mapping, the coordinator only reads a few bytes around each range boundary
+  private static long nextLineStart(FileChannel channel, long offset, long fileSize) throws IOException {
+    long position = Math.min(offset, fileSize);
+    if (position == 0) return 0;
+    final ByteBuffer buffer = ByteBuffer.allocate(4096);
+    while (position < fileSize) {
+      buffer.clear();
+      final int read = channel.read(buffer, position - 1);
+      for (int i = 0; i < read; i++) {
+        if (buffer.get(i) == '\n') return position + i;
+      }
+      position += Math.max(read, 1);
+    }
+    return fileSize;
+  }
+
+  // hasvalue & haszero
+  // adapted from https://graphics.stanford.edu/~seander/bithacks.html#ZeroInWord
+  // returns [0-7] otherwise 8 when no match
+  private static int linebreakPos(long word) {
+    // // hasvalue
+    final long hasVal = word ^ 0xa0a0a0a0a0a0a0aL; // semicolon pattern
+    return Long.numberOfTrailingZeros(((hasVal - 0x0101010101010101L) & ~hasVal & 0x8080808080808080L)) >>> 3; // haszero
+  }
+
+  // same as MainBitmask.ticketMask, see there for details
+  static long ticketMask(MemorySegment segment, long lineEnd) {
+    long w0 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 8);
+    long w1 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 16);
+    long w2 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 24);
+    long mask = 0;
+    for (int i = 0; i < 6; i++) {
+      final long ones = (w0 >>> 56) & 0xF;
+      final long tens = (w0 >>> 48) & 0xFF;
+      final long twoDigits = (tens - ';') >>> 63; // 1 when it's a digit, 0 when it's ';' since digits are below ';' in ascii
+      mask |= 1L << (ones + (twoDigits * 10 * (tens & 0xF)));
+      final int shift = (int) (16 + (twoDigits << 3)); // 2 or 3 bytes
+      w0 = (w0 << shift) | (w1 >>> (64 - shift));
+      w1 = (w1 << shift) | (w2 >>> (64 - shift));
+      w2 <<= shift;
+    }
+    return mask;
+  }
+
+  static long ticketMaskSlow(MemorySegment segment, long lineEnd) {
+    long mask = 0;
+    long pos = lineEnd - 1;
+    for (int i = 0; i < 6; i++) {
+      int number = segment.get(ValueLayout.JAVA_BYTE, pos) - '0';
+      final byte b = segment.get(ValueLayout.JAVA_BYTE, pos - 1);
+      if (b != ';') {
+        pos--; // skip tens digit
+        number += (b - '0') * 10;
+      }
+      pos -= 2;
+      mask |= 1L << number;
+    }
+    return mask;
+  }
+
+  static long drawMask(String[] input) {
+    long mask = 0;
+    for (String number : input) {
+      final int n = Integer.parseInt(number);
+      if (n < 1 || n > 49) {
+        throw new IllegalArgumentException("Numbers must be unique in [1-49]: " + Arrays.toString(input));
+      }
+      mask |= 1L << n;
+    }
+    if (input.length != 6 || Long.bitCount(mask) != 6) { // a repeated number sets the same bit
+      throw new IllegalArgumentException("Expected 6 unique numbers: " + Arrays.toString(input));
+    }
+    return mask;
+  }
+
+  // the directory itself, or for a glob the directory before the first wildcard, shards are walked from there
+  private static Path shardRoot(String shards) {
+    if (Files.isDirectory(Path.of(shards))) {
+      return Path.of(shards);
+    }
+    final int slash = shards.replaceAll("[*?\\[{].*", "").lastIndexOf('/');
+    return Path.of(slash < 0 ? "." : shards.substring(0, Math.max(slash, 1)));
+  }
+
+  // path under the walked directory, so shards with the same name in different directories stay apart
+  private static String shardTag(Path file) {
+    return shardRoot(SHARDS).relativize(file) + ";";
+  }
+
+  // files of a directory, or the files matching a glob like regions/*.csv, in name order
+  private static List<Path> findShards(String shards) throws IOException {
+    final Path root = shardRoot(shards);
+    PathMatcher matcher = path -> true;
+    int depth = 1;
+    if (!Files.isDirectory(Path.of(shards))) {
+      final int slash = shards.replaceAll("[*?\\[{].*", "").lastIndexOf('/');
+      matcher = FileSystems.getDefault().getPathMatcher("glob:" + (slash < 0 ? "./" + shards : shards));
+      depth = shards.contains("**") ? Integer.MAX_VALUE : shards.substring(slash + 1).split("/").length;
+    }
+    final List<Path> files = new ArrayList<>();
+    try (Stream<Path> paths = Files.walk(root, depth)) {
+      for (Path path : (Iterable<Path>) paths.sorted()::iterator) {
+        if (Files.isRegularFile(path) && matcher.matches(path)) {
+          files.add(path);
+        }
+      }
+    }
+    if (files.isEmpty()) {
+      throw new IllegalArgumentException("No pool files found for shards: " + shards);
+    }
+    return files;
+  }
+
+  // One scan task of a range on a worker JVM, claims chunks until the range is done
+  static class RegionWorker implements Callable<RegionWorker> {
+
+    final MemorySegment segment;
+    final long fileSize;
+    final AtomicLong cursor; // start of the next chunk to claim, shared by all tasks of the range
+    final long end; // range end, always a line start
+
+    final long drawMask;
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    long winners;
+
+    public RegionWorker(MemorySegment memory, long fileSize, AtomicLong cursor, long end, long drawMask) {
+      this.segment = memory;
+      this.fileSize = fileSize;
+      this.cursor = cursor;
+      this.end = end;
+      this.drawMask = drawMask;
+    }
+
+    private void check(long lineBreakPos) {
+      final long ticket = lineBreakPos >= TAIL_BYTES ? ticketMask(this.segment, lineBreakPos) : ticketMaskSlow(this.segment, lineBreakPos);
+      if (EXACT_MATCH ? ticket == this.drawMask : Long.bitCount(ticket & this.drawMask) == MATCH_NUMBERS) { // found a match
+        final long start = findPreviousLinebreak(this.segment, lineBreakPos - 1) + 1;
+        final long end = findNextSemicolon(this.segment, start);
+        this.output.write(this.segment.asSlice(start, end - start).toArray(ValueLayout.JAVA_BYTE), 0, (int) (end - start));
+        this.output.write('\n');
+        this.winners++;
+      }
+    }
+
+    @Override
+    public RegionWorker call() {
+      long chunkStart;
+      while ((chunkStart = this.cursor.getAndAdd(CHUNK_SIZE)) < this.end) { // claim the next chunk
+        final long start = nextLineStart(this.segment, chunkStart, this.fileSize);
+        final long end = nextLineStart(this.segment, Math.min(chunkStart + CHUNK_SIZE, this.end), this.fileSize);
+        scan(start, end);
+      }
+      return this;
+    }
+
+    // scan a line aligned chunk, same loop as in MainBitmask
+    void scan(long start, long end) {
+      long word;
+      // the last line of the file may have no linebreak, then the chunk end is its line end
+      long relativePos = start < end && this.segment.get(ValueLayout.JAVA_BYTE, end - 1) != '\n' ? 0 : 8;
+      long lineBreakPos = end;
+      long position = end; // scan the segment reverse
+      final long loopCount = (end - start) / 8; // 8 bytes at a time
+      for (int i = 0; i < loopCount; i++) {
+        if (relativePos != 8) {
+          check(lineBreakPos);
+        }
+
+        word = this.segment.get(ValueLayout.JAVA_LONG_UNALIGNED, position - 8); // read a word of 8 bytes each time
+        relativePos = linebreakPos(word); // linebreak position in the word, if not returns 8
+        lineBreakPos = position - 8 + relativePos;
+
+        position -= 8; // move pointer 8 bytes to the back
+      }
+      if (relativePos != 8) { // the last linebreak found
+        check(lineBreakPos);
+      }
+      // less than a word left at the chunk start, there can be one linebreak at most
+      while (--position >= start) {
+        if (this.segment.get(ValueLayout.JAVA_BYTE, position) == '\n') {
+          check(position);
+        }
+      }
+    }
+  }
+
+  // a line aligned part of a shard, its result is kept until all ranges are done
+  static final class Range {
+
+    final int id;
+    final int shard;
+    final long start;
+    final long end;
+
+    long winners;
+    byte[] names; // null until a worker sent the result
+
+    Range(int id, int shard, long start, long end) {
+      this.id = id;
+      this.shard = shard;
+      this.start = start;
+      this.end = end;
+    }
+  }
+
+  static final class Coordinator {
+
+    final List<Path> shards;
+    final long drawMask;
+    final List<Range> ranges = new ArrayList<>();
+    final LinkedBlockingDeque<Range> pending = new LinkedBlockingDeque<>();
+    final CountDownLatch remaining;
+    final AtomicLong nodeIds = new AtomicLong();
+
+    Coordinator(List<Path> shards, long drawMask) throws IOException {
+      this.shards = shards;
+      this.drawMask = drawMask;
+      for (int i = 0; i < shards.size(); i++) {
+        try (FileChannel channel = FileChannel.open(shards.get(i), StandardOpenOption.READ)) {
+          final long fileSize = channel.size();
+          long start = 0;
+          while (start < fileSize) {
+            final long end = nextLineStart(channel, start + RANGE_SIZE, fileSize);
+            this.ranges.add(new Range(this.ranges.size(), i, start, end));
+            start = end;
+          }
+        }
+      }
+      this.pending.addAll(this.ranges);
+      this.remaining = new CountDownLatch(this.ranges.size());
+    }
+
+    // next range to scan, null when all results are in
+    Range next() throws InterruptedException {
+      while (this.remaining.getCount() > 0) {
+        final Range range = this.pending.poll(50, TimeUnit.MILLISECONDS); // others may still fail and give theirs back
+        if (range != null) return range;
+      }
+      return null;
+    }
+
+    synchronized void complete(Range range, long winners, byte[] names) {
+      if (range.names != null) return; // already done by another worker
+      range.winners = winners;
+      range.names = names;
+      this.remaining.countDown();
+    }
+
+    // one connected worker, a range at a time until there's none left
+    void serve(Socket socket) {
+      final long node = this.nodeIds.incrementAndGet();
+      long ranges = 0;
+      long winners = 0;
+      Range range = null;
+      try (socket) {
+        socket.setSoTimeout(TIMEOUT * 1000);
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeLong(this.drawMask);
+        out.writeInt(this.shards.size());
+        for (Path shard : this.shards) {
+          out.writeUTF(shard.toAbsolutePath().toString());
+        }
+        out.flush();
+        while ((range = next()) != null) {
+          out.writeInt(range.shard);
+          out.writeLong(range.start);
+          out.writeLong(range.end);
+          out.flush();
+          final long rangeWinners = in.readLong();
+          final byte[] names = new byte[in.readInt()];
+          in.readFully(names);
+          complete(range, rangeWinners, names);
+          range = null;
+          ranges++;
+          winners += rangeWinners;
+        }
+        out.writeInt(DONE);
+        out.flush();
+      }
+      catch (IOException | InterruptedException e) {
+        if (range != null) {
+          this.pending.addFirst(range); // the next worker asking takes it over
+          System.err.printf("Node %d lost (%s), range %d is reassigned%n", node, e, range.id);
+        }
+      }
+      System.err.printf("Node %d: ranges=%d, winners=%d%n", node, ranges, winners);
+    }
+  }
+
+  // worker side, the connection ends when the coordinator sends DONE or goes away
+  static void work(String coordinator) throws Exception {
+    final ExecutorService threads = Executors.newFixedThreadPool(WORKERS, runnable -> {
+      final Thread thread = new Thread(runnable);
+      thread.setDaemon(true);
+      return thread;
+    });
+    try (Socket socket = new Socket()) {
+      socket.connect(socketAddress(coordinator));
+      final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      final long drawMask = in.readLong();
+      final String[] paths = new String[in.readInt()];
+      for (int i = 0; i < paths.length; i++) {
+        paths[i] = in.readUTF();
+      }
+      final Map<Integer, MemorySegment> mapped = new HashMap<>(); // files are mapped on their first range
+
+      int shard;
+      int ranges = 0;
+      while ((shard = in.readInt()) != DONE) {
+        final long start = in.readLong();
+        final long end = in.readLong();
+        if (ranges++ == HALT_AFTER) {
+          Runtime.getRuntime().halt(1); // no goodbye, like a crash
+        }
+        final MemorySegment memory = mapped.computeIfAbsent(shard, i -> {
+          try (FileChannel channel = FileChannel.open(Path.of(paths[i]), StandardOpenOption.READ)) {
+            return channel.map(MapMode.READ_ONLY, 0, channel.size(), Arena.global());
+          }
+          catch (IOException e) {
+            throw new IllegalStateException("Cannot map " + paths[i], e);
+          }
+        });
+
+        final AtomicLong cursor = new AtomicLong(start);
+        final List<RegionWorker> tasks = new ArrayList<>(WORKERS);
+        for (int i = 0; i < WORKERS; i++) {
+          tasks.add(new RegionWorker(memory, memory.byteSize(), cursor, end, drawMask));
+        }
+        long winners = 0;
+        final ByteArrayOutputStream names = new ByteArrayOutputStream();
+        for (Future<RegionWorker> result : threads.invokeAll(tasks)) {
+          final RegionWorker task = result.get(); // rethrows when a task failed
+          winners += task.winners;
+          task.output.writeTo(names);
+        }
+        out.writeLong(winners);
+        out.writeInt(names.size());
+        names.writeTo(out);
+        out.flush();
+      }
+    }
+    catch (EOFException | SocketException e) {
+      System.err.println("Coordinator is gone: " + e.getMessage());
+    }
+  }
+
+  // worker JVM on this host, with the same java, classpath and scan options
+  private static Process startNode(int node, InetSocketAddress address) throws IOException {
+    final List<String> command = new ArrayList<>();
+    command.add(ProcessHandle.current().info().command().orElse("java"));
+    command.add("--enable-preview");
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add("-Dcoordinator=" + address.getHostString() + ":" + address.getPort());
+    command.add("-Dworkers=" + Integer.getInteger("workers", Math.max(1, WORKERS / NODES)));
+    command.add("-DchunkSize=" + CHUNK_SIZE);
+    command.add("-Dmatch=" + MATCH_NUMBERS);
+    if (node == 0 && HALT_AFTER >= 0) {
+      command.add("-DhaltAfter=" + HALT_AFTER);
+    }
+    command.add(MainCluster.class.getName());
+    return new ProcessBuilder(command)
+      .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+      .redirectError(ProcessBuilder.Redirect.INHERIT)
+      .start();
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (COORDINATOR != null) {
+      work(COORDINATOR);
+      return;
+    }
+
+    System.out.println("Input: " + Arrays.toString(args));
+    final List<Path> shards = SHARDS == null ? List.of(DATA_FILE) : findShards(SHARDS);
+    final Coordinator coordinator = new Coordinator(shards, drawMask(args));
+
+    final InetSocketAddress bind = socketAddress(ADDRESS);
+    try (ServerSocket server = new ServerSocket(bind.getPort(), 50, InetAddress.getByName(bind.getHostString()))) {
+      final InetSocketAddress address = (InetSocketAddress) server.getLocalSocketAddress();
+      System.out.println("Nodes: " + NODES);
+      System.out.println("Ranges: " + coordinator.ranges.size());
+      System.out.flush();
+      System.err.println("Listening on " + address.getHostString() + ":" + address.getPort());
+
+      Thread.ofPlatform().daemon().start(() -> {
+        while (true) {
+          try {
+            final Socket socket = server.accept();
+            Thread.ofVirtual().start(() -> coordinator.serve(socket)); // blocked on the worker most of the time
+          }
+          catch (IOException e) {
+            return; // closed
+          }
+        }
+      });
+
+      final List<Process> nodes = new ArrayList<>();
+      for (int i = 0; i < NODES; i++) {
+        nodes.add(startNode(i, address));
+      }
+      while (!coordinator.remaining.await(1, TimeUnit.SECONDS)) {
+        if (NODES > 0 && nodes.stream().noneMatch(Process::isAlive)) {
+          throw new IllegalStateException("All nodes are gone, " + coordinator.remaining.getCount() + " ranges left");
+        }
+      }
+      for (Process node : nodes) { // they get DONE with their next request
+        if (!node.waitFor(10, TimeUnit.SECONDS)) {
+          node.destroy();
+        }
+      }
+    }
+
+    // results range by range, names of shards are tagged as in Main
+    long winners = 0;
+    for (Range range : coordinator.ranges) {
+      winners += range.winners;
+      if (SHARDS == null) {
+        System.out.write(range.names);
+        continue;
+      }
+      final byte[] tag = shardTag(shards.get(range.shard)).getBytes(UTF_8);
+      int start = 0;
+      for (int i = 0; i < range.names.length; i++) {
+        if (range.names[i] == '\n') {
+          System.out.write(tag);
+          System.out.write(range.names, start, i + 1 - start);
+          start = i + 1;
+        }
+      }
+    }
+    System.out.flush();
+    System.err.println("Winners: " + winners);
+  }
+
+}
@@ -0,0 +1,266 @@
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+/**
+ * Binary columnar version of the pool, text is parsed only once by the converter.
+ *
+ * File layout (little endian):
+ *  - header    : magic, ticket count, heap size (8 bytes each) padded to 32 bytes
+ *  - masks     : 8 bytes per ticket, same bitmask as in MainBitmask (bit n = number n)
+ *  - offsets   : 5 bytes (40 bits) per ticket + 1 for the end, start of the name in the heap
+ *  - heap      : name bytes back to back, no separators
+ *
+ * Convert once with -Dconvert=true, then every draw only scans the mask column, 8 bytes per ticket instead of the whole line.
+ * Names are resolved from the heap for winners only.
+ *
+ * Testing on JDK 21.0.5-graal JIT compiler (no native), limiting to 8 threads.
+ * Big thanks to Mike, for bringing this challenge.
+ *
+ * Follow me at: github.com/yavuztas
+ */
+public class MainColumnar {
+
+  private static final Path DATA_FILE = Path.of("pool.csv");
+  private static final Path BINARY_FILE = Path.of("pool.bin");
+
+  private static final long MAGIC = 0x314c4f4f50544f4cL; // "LOTPOOL1"
+  private static final int HEADER_SIZE = 32;
+  private static final int OFFSET_BYTES = 5; // 40 bits, enough for 1TB of names
+  private static final long OFFSET_MASK = (1L << 40) - 1;
+  private static final int PADDING = 8; // so that the last offset can be read as a full long
+
+  private static final int MATCH_NUMBERS = Integer.getInteger("match", 6); // how many numbers to match for a winner
+  private static final boolean EXACT_MATCH = MATCH_NUMBERS == 6;
+
+  // numeric tail of a line is 18 bytes at most (6 x ";dd"), three words always cover it
+  private static final int TAIL_BYTES = 24;
+
+  // hasvalue & haszero
+  // adapted from https://graphics.stanford.edu/~seander/bithacks.html#ZeroInWord
+  // returns [0-7] otherwise 8 when no match
+  private static int linebreakPos(long word) {
+    // // hasvalue
+    final long hasVal = word ^ 0xa0a0a0a0a0a0a0aL; // semicolon pattern
+    return Long.numberOfTrailingZeros(((hasVal - 0x0101010101010101L) & ~hasVal & 0x8080808080808080L)) >>> 3; // haszero
+  }
+
+  // same as MainBitmask.ticketMask, see there for details
+  static long ticketMask(MemorySegment segment, long lineEnd) {
+    long w0 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 8);
+    long w1 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 16);
+    long w2 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 24);
+    long mask = 0;
+    for (int i = 0; i < 6; i++) {
+      final long ones = (w0 >>> 56) & 0xF;
+      final long tens = (w0 >>> 48) & 0xFF;
+      final long twoDigits = (tens - ';') >>> 63; // 1 when it's a digit, 0 when it's ';' since digits are below ';' in ascii
+      mask |= 1L << (ones + (twoDigits * 10 * (tens & 0xF)));
+      final int shift = (int) (16 + (twoDigits << 3)); // 2 or 3 bytes
+      w0 = (w0 << shift) | (w1 >>> (64 - shift));
+      w1 = (w1 << shift) | (w2 >>> (64 - shift));
+      w2 <<= shift;
+    }
+    return mask;
+  }
+
+  static long ticketMaskSlow(MemorySegment segment, long lineEnd) {
+    long mask = 0;
+    long pos = lineEnd - 1;
+    for (int i = 0; i < 6; i++) {
+      int number = segment.get(ValueLayout.JAVA_BYTE, pos) - '0';
+      final byte b = segment.get(ValueLayout.JAVA_BYTE, pos - 1);
+      if (b != ';') {
+        pos--; // skip tens digit
+        number += (b - '0') * 10;
+      }
+      pos -= 2;
+      mask |= 1L << number;
+    }
+    return mask;
+  }
+
+  static long drawMask(String[] input) {
+    long mask = 0;
+    for (String number : input) {
+      final int n = Integer.parseInt(number);
+      if (n < 1 || n > 49) {
+        throw new IllegalArgumentException("Numbers must be unique in [1-49]: " + Arrays.toString(input));
+      }
+      mask |= 1L << n;
+    }
+    if (input.length != 6 || Long.bitCount(mask) != 6) { // a repeated number sets the same bit
+      throw new IllegalArgumentException("Expected 6 unique numbers: " + Arrays.toString(input));
+    }
+    return mask;
+  }
+
+  private static long countLines(MemorySegment segment, long size) {
+    long lines = 0;
+    long position = 0;
+    for (; position + 8 <= size; position += 8) {
+      final long hasVal = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, position) ^ 0xa0a0a0a0a0a0a0aL;
+      lines += Long.bitCount((hasVal - 0x0101010101010101L) & ~hasVal & 0x8080808080808080L);
+    }
+    for (; position < size; position++) {
+      if (segment.get(ValueLayout.JAVA_BYTE, position) == '\n') lines++;
+    }
+    if (size > 0 && segment.get(ValueLayout.JAVA_BYTE, size - 1) != '\n') lines++; // last line without linebreak
+    return lines;
+  }
+
+  /**
+   * One-time conversion, single pass over the text file after counting lines to lay out the columns.
+   * Heap size is not known upfront, so the output is mapped with the text size as upper bound and truncated in the end.
+   */
+  static void convert(Path source, Path target) throws Exception {
+    final long fileSize = Files.size(source);
+    try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+         FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+           StandardOpenOption.READ, StandardOpenOption.WRITE);
+         Arena arena = Arena.ofConfined()) {
+
+      final MemorySegment text = in.map(MapMode.READ_ONLY, 0, fileSize, arena);
+      final long count = countLines(text, fileSize);
+
+      final long masksStart = HEADER_SIZE;
+      final long offsetsStart = masksStart + count * 8;
+      final long heapStart = offsetsStart + (count + 1) * OFFSET_BYTES;
+      final long maxSize = heapStart + fileSize + PADDING;
+      final MemorySegment binary = out.map(MapMode.READ_WRITE, 0, maxSize, arena);
+
+      long heapPos = 0;
+      long lineStart = 0;
+      long ticket = 0;
+      while (ticket < count) {
+        long lineEnd = lineStart;
+        while (lineEnd < fileSize && text.get(ValueLayout.JAVA_BYTE, lineEnd) != '\n') {
+          lineEnd++;
+        }
+        long nameEnd = lineStart;
+        while (text.get(ValueLayout.JAVA_BYTE, nameEnd) != ';') {
+          nameEnd++;
+        }
+        final long mask = lineEnd >= TAIL_BYTES ? ticketMask(text, lineEnd) : ticketMaskSlow(text, lineEnd);
+        binary.set(ValueLayout.JAVA_LONG_UNALIGNED, masksStart + ticket * 8, mask);
+        writeOffset(binary, offsetsStart + ticket * OFFSET_BYTES, heapPos);
+        MemorySegment.copy(text, lineStart, binary, heapStart + heapPos, nameEnd - lineStart);
+        heapPos += nameEnd - lineStart;
+        lineStart = lineEnd + 1;
+        ticket++;
+      }
+      writeOffset(binary, offsetsStart + count * OFFSET_BYTES, heapPos); // end of the last name
+
+      binary.set(ValueLayout.JAVA_LONG_UNALIGNED, 0, MAGIC);
+      binary.set(ValueLayout.JAVA_LONG_UNALIGNED, 8, count);
+      binary.set(ValueLayout.JAVA_LONG_UNALIGNED, 16, heapPos);
+      binary.force();
+      out.truncate(heapStart + heapPos + PADDING);
+
+      System.out.println("Tickets: " + count);
+      System.out.println("Binary size: " + (heapStart + heapPos + PADDING));
+    }
+  }
+
+  private static void writeOffset(MemorySegment segment, long position, long offset) {
+    for (int i = 0; i < OFFSET_BYTES; i++) {
+      segment.set(ValueLayout.JAVA_BYTE, position + i, (byte) (offset >>> (i << 3)));
+    }
+  }
+
+  static class RegionWorker extends Thread {
+
+    final MemorySegment segment;
+    final long start; // ticket index
+    final long end;
+
+    final long offsetsStart;
+    final long heapStart;
+    final long drawMask;
+
+    public RegionWorker(MemorySegment memory, long start, long end, long count, long drawMask) {
+      this.segment = memory;
+      this.start = start;
+      this.end = end;
+      this.offsetsStart = HEADER_SIZE + count * 8;
+      this.heapStart = this.offsetsStart + (count + 1) * OFFSET_BYTES;
+      this.drawMask = drawMask;
+    }
+
+    private long nameOffset(long ticket) {
+      return this.segment.get(ValueLayout.JAVA_LONG_UNALIGNED, this.offsetsStart + ticket * OFFSET_BYTES) & OFFSET_MASK;
+    }
+
+    private void printName(long ticket) {
+      final long start = nameOffset(ticket);
+      final long end = nameOffset(ticket + 1);
+      final byte[] bytes = new byte[(int) (end - start)];
+      MemorySegment.copy(this.segment, ValueLayout.JAVA_BYTE, this.heapStart + start, bytes, 0, bytes.length);
+      System.out.println(new String(bytes, UTF_8));
+    }
+
+    @Override
+    public void run() {
+      // masks start at 32 bytes in a page aligned mapping, aligned access is safe here
+      for (long i = this.start; i < this.end; i++) {
+        final long ticket = this.segment.get(ValueLayout.JAVA_LONG, HEADER_SIZE + (i << 3));
+        if (EXACT_MATCH ? ticket == this.drawMask : Long.bitCount(ticket & this.drawMask) == MATCH_NUMBERS) {
+          printName(i);
+        }
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (Boolean.getBoolean("convert")) {
+      convert(DATA_FILE, BINARY_FILE);
+      return;
+    }
+
+    System.out.println("Input: " + Arrays.toString(args));
+    final long drawMask = drawMask(args);
+
+    final long fileSize = Files.size(BINARY_FILE);
+    final FileChannel channel = (FileChannel) Files.newByteChannel(BINARY_FILE, StandardOpenOption.READ);
+    final MemorySegment memory = channel.map(MapMode.READ_ONLY, 0, fileSize, Arena.global());
+    if (memory.get(ValueLayout.JAVA_LONG_UNALIGNED, 0) != MAGIC) {
+      throw new IllegalStateException("Not a binary pool file: " + BINARY_FILE);
+    }
+    final long count = memory.get(ValueLayout.JAVA_LONG_UNALIGNED, 8);
+
+    var concurrency = 2 * Runtime.getRuntime().availableProcessors();
+    long regionSize = count / concurrency;
+
+    if (count <= 1 << 17) { // small pool (1mb of masks), run in single-thread mode
+      concurrency = 1;
+      regionSize = count;
+    }
+
+    System.out.println("Concurrency: " + concurrency);
+    System.out.println("Tickets: " + count);
+    System.out.println("Region size: " + regionSize);
+
+    if (concurrency == 1) { // shortcut for single-thread mode
+      new RegionWorker(memory, 0, count, count, drawMask).start();
+      return;
+    }
+
+    // calculate boundaries for regions, by ticket index so no line alignment is needed
+    long regionStart = 0;
+    for (int i = 0; i < concurrency - 1; i++) {
+      new RegionWorker(memory, regionStart, regionStart + regionSize, count, drawMask).start(); // start processing
+      regionStart += regionSize;
+    }
+    new RegionWorker(memory, regionStart, count, count, drawMask).start(); // last piece
+  }
+
+}
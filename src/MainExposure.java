@@ -0,0 +1,529 @@
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+
+/**
+ * Exposure of the pool for every possible 6/49 draw, 13,983,816 of them, before the draw happens.
+ *
+ * Every combination has a colex rank, the sum of C(n - 1, i) over its numbers n in ascending order i = 1..6.
+ *  - count[rank] is how many tickets are bought with that combination, filled by one scan of the pool
+ *  - g5, g4 and g3 are the superset sums of the 5, 4 and 3 number subsets, the tickets containing a subset.
+ *    They are built layer by layer like a zeta transform, g4(S) = sum of g5(S + x) over x not in S, divided by 2
+ *    since each ticket is reached from both of its extra numbers, g3 the same way divided by 3.
+ * For a draw D the sum of gk over the k subsets of D counts every ticket matching j numbers C(j, k) times,
+ * so the tiers come out by inversion:
+ *   n6 = count(D), n5 = A5 - 6 n6, n4 = A4 - 5 n5 - 15 n6, n3 = A3 - 4 n4 - 10 n5 - 20 n6
+ * That's 41 lookups per draw, all draws are settled by a ForkJoin over rank ranges.
+ *
+ * Prizes per tier with -Dprizes=6:1000000,5:5000,4:100,3:10, payout of a draw is the sum over its winners.
+ * Prints the payout distribution in power of two buckets and the -Dworst=10 draws with their tiers.
+ * Pass a draw as arguments to print its tiers as well, e.g. MainExposure 9 13 40 34 17 7
+ *
+ * Big thanks to Mike, for bringing this challenge.
+ *
+ * Follow me at: github.com/yavuztas
+ */
+public class MainExposure {
+
+  private static final Path DATA_FILE = Path.of("pool.csv");
+
+  // workers claim line aligned chunks from a shared cursor, -Dworkers=16 -DchunkSize=4m to tune
+  private static final int WORKERS = Integer.getInteger("workers", Runtime.getRuntime().availableProcessors());
+  private static final long CHUNK_SIZE = parseSize(System.getProperty("chunkSize", "8m"));
+
+  private static final long[] PRIZES = parsePrizes(System.getProperty("prizes", "6:1000000,5:5000,4:100,3:10"));
+  private static final int WORST = Integer.getInteger("worst", 10);
+
+  private static final int RANGE = 49;
+  private static final int PICK = 6;
+  private static final int[][] BINOMIAL = binomials(); // BINOMIAL[n][k] for n <= 49, k <= 6
+  private static final int DRAWS = BINOMIAL[RANGE][PICK];
+  private static final int LEAF_DRAWS = 1 << 16; // draws settled by a task without splitting further
+
+  // numeric tail of a line is 18 bytes at most (6 x ";dd"), three words always cover it
+  private static final int TAIL_BYTES = 24;
+
+  private static final VarHandle COUNTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+  // positions kept from a draw for its 5, 4 and 3 number subsets
+  private static final int[][] SUBSETS5 = subsets(5);
+  private static final int[][] SUBSETS4 = subsets(4);
+  private static final int[][] SUBSETS3 = subsets(3);
+
+  // size with an optional k, m or g suffix
+  static long parseSize(String size) {
+    final char unit = Character.toLowerCase(size.charAt(size.length() - 1));
+    final int shift = unit == 'k' ? 10 : unit == 'm' ? 20 : unit == 'g' ? 30 : 0;
+    return Long.parseLong(shift == 0 ? size : size.substring(0, size.length() - 1)) << shift;
+  }
+
+  // tier:amount pairs, tiers are 3 to 6 matching numbers
+  static long[] parsePrizes(String prizes) {
+    final long[] amounts = new long[PICK + 1];
+    for (String prize : prizes.split(",")) {
+      final String[] parts = prize.strip().split(":");
+      final int tier = Integer.parseInt(parts[0]);
+      if (parts.length != 2 || tier < 3 || tier > PICK) {
+        throw new IllegalArgumentException("Expected prizes like 6:1000000,5:5000,4:100,3:10 but was: " + prize);
+      }
+      amounts[tier] = Long.parseLong(parts[1]);
+    }
+    return amounts;
+  }
+
+  private static int[][] binomials() {
+    final int[][] binomial = new int[RANGE + 1][PICK + 2];
+    for (int n = 0; n <= RANGE; n++) {
+      binomial[n][0] = 1;
+      for (int k = 1; k <= PICK + 1; k++) {
+        binomial[n][k] = n == 0 ? 0 : binomial[n - 1][k - 1] + binomial[n - 1][k];
+      }
+    }
+    return binomial;
+  }
+
+  private static int[][] subsets(int size) {
+    final List<int[]> subsets = new ArrayList<>();
+    for (int mask = 0; mask < 1 << PICK; mask++) {
+      if (Integer.bitCount(mask) == size) {
+        final int positions = mask;
+        subsets.add(IntStream.range(0, PICK).filter(i -> (positions & (1 << i)) != 0).toArray());
+      }
+    }
+    return subsets.toArray(int[][]::new);
+  }
+
+  // colex rank of ascending numbers
+  static int rank(int[] numbers, int length) {
+    int rank = 0;
+    for (int i = 0; i < length; i++) {
+      rank += BINOMIAL[numbers[i] - 1][i + 1];
+    }
+    return rank;
+  }
+
+  // ascending numbers of a colex rank
+  static void unrank(int rank, int[] numbers, int length) {
+    int rest = rank;
+    int n = RANGE;
+    for (int i = length - 1; i >= 0; i--) {
+      while (BINOMIAL[n - 1][i + 1] > rest) n--;
+      numbers[i] = n;
+      rest -= BINOMIAL[n - 1][i + 1];
+      n--;
+    }
+  }
+
+  // colex successor, the lowest number that can move up does and the ones below it start over
+  static void next(int[] numbers) {
+    int i = 0;
+    while (i < PICK - 1 && numbers[i] + 1 == numbers[i + 1]) i++;
+    numbers[i]++;
+    for (int j = 0; j < i; j++) {
+      numbers[j] = j + 1;
+    }
+  }
+
+  // first line start at or after the offset, so chunks always hold whole lines
+  private static long nextLineStart(MemorySegment segment, long offset, long fileSize) {
+    long position = Math.min(offset, fileSize);
+    while (position > 0 && position < fileSize && segment.get(ValueLayout.JAVA_BYTE, position - 1) != '\n') {
+      position++;
+    }
+    return position;
+  }
+
+  // hasvalue & haszero
+  // adapted from https://graphics.stanford.edu/~seander/bithacks.html#ZeroInWord
+  // returns [0-7] otherwise 8 when no match
+  private static int linebreakPos(long word) {
+    // // hasvalue
+    final long hasVal = word ^ 0xa0a0a0a0a0a0a0aL; // semicolon pattern
+    return Long.numberOfTrailingZeros(((hasVal - 0x0101010101010101L) & ~hasVal & 0x8080808080808080L)) >>> 3; // haszero
+  }
+
+  // same as MainBitmask.ticketMask, see there for details
+  static long ticketMask(MemorySegment segment, long lineEnd) {
+    long w0 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 8);
+    long w1 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 16);
+    long w2 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 24);
+    long mask = 0;
+    for (int i = 0; i < 6; i++) {
+      final long ones = (w0 >>> 56) & 0xF;
+      final long tens = (w0 >>> 48) & 0xFF;
+      final long twoDigits = (tens - ';') >>> 63; // 1 when it's a digit, 0 when it's ';' since digits are below ';' in ascii
+      mask |= 1L << (ones + (twoDigits * 10 * (tens & 0xF)));
+      final int shift = (int) (16 + (twoDigits << 3)); // 2 or 3 bytes
+      w0 = (w0 << shift) | (w1 >>> (64 - shift));
+      w1 = (w1 << shift) | (w2 >>> (64 - shift));
+      w2 <<= shift;
+    }
+    return mask;
+  }
+
+  static long ticketMaskSlow(MemorySegment segment, long lineEnd) {
+    long mask = 0;
+    long pos = lineEnd - 1;
+    for (int i = 0; i < 6; i++) {
+      int number = segment.get(ValueLayout.JAVA_BYTE, pos) - '0';
+      final byte b = segment.get(ValueLayout.JAVA_BYTE, pos - 1);
+      if (b != ';') {
+        pos--; // skip tens digit
+        number += (b - '0') * 10;
+      }
+      pos -= 2;
+      mask |= 1L << number;
+    }
+    return mask;
+  }
+
+  // fills the shared count table, one atomic add per ticket
+  static class RegionWorker extends Thread {
+
+    final MemorySegment segment;
+    final long fileSize;
+    final AtomicLong cursor; // start of the next chunk to claim, shared by all workers
+    final long chunkSize;
+
+    final int[] counts;
+    long tickets;
+    long invalid; // repeated numbers or numbers out of 1-49, left out
+
+    RegionWorker(MemorySegment memory, long fileSize, AtomicLong cursor, long chunkSize, int[] counts) {
+      this.segment = memory;
+      this.fileSize = fileSize;
+      this.cursor = cursor;
+      this.chunkSize = chunkSize;
+      this.counts = counts;
+    }
+
+    private void count(long lineBreakPos) {
+      final long ticket = lineBreakPos >= TAIL_BYTES ? ticketMask(this.segment, lineBreakPos) : ticketMaskSlow(this.segment, lineBreakPos);
+      if (Long.bitCount(ticket) != PICK || (ticket & 1) != 0 || ticket >>> (RANGE + 1) != 0) {
+        this.invalid++;
+        return;
+      }
+      int rank = 0;
+      int i = 1;
+      for (long bits = ticket; bits != 0; bits &= bits - 1) { // numbers in ascending order
+        rank += BINOMIAL[Long.numberOfTrailingZeros(bits) - 1][i++];
+      }
+      COUNTS.getAndAdd(this.counts, rank, 1);
+      this.tickets++;
+    }
+
+    @Override
+    public void run() {
+      long chunkStart;
+      while ((chunkStart = this.cursor.getAndAdd(this.chunkSize)) < this.fileSize) { // claim the next chunk
+        final long start = nextLineStart(this.segment, chunkStart, this.fileSize);
+        final long end = nextLineStart(this.segment, chunkStart + this.chunkSize, this.fileSize);
+        scan(start, end);
+      }
+    }
+
+    // scan a line aligned chunk, same loop as in MainBitmask
+    void scan(long start, long end) {
+      long word;
+      // the last line of the file may have no linebreak, then the chunk end is its line end
+      long relativePos = start < end && this.segment.get(ValueLayout.JAVA_BYTE, end - 1) != '\n' ? 0 : 8;
+      long lineBreakPos = end;
+      long position = end; // scan the segment reverse
+      final long loopCount = (end - start) / 8; // 8 bytes at a time
+      for (int i = 0; i < loopCount; i++) {
+        if (relativePos != 8) {
+          count(lineBreakPos);
+        }
+
+        word = this.segment.get(ValueLayout.JAVA_LONG_UNALIGNED, position - 8); // read a word of 8 bytes each time
+        relativePos = linebreakPos(word); // linebreak position in the word, if not returns 8
+        lineBreakPos = position - 8 + relativePos;
+
+        position -= 8; // move pointer 8 bytes to the back
+      }
+      if (relativePos != 8) { // the last linebreak found
+        count(lineBreakPos);
+      }
+      // less than a word left at the chunk start, there can be one linebreak at most
+      while (--position >= start) {
+        if (this.segment.get(ValueLayout.JAVA_BYTE, position) == '\n') {
+          count(position);
+        }
+      }
+    }
+  }
+
+  // superset sums of the k subsets from the k + 1 ones, each k subset is independent so they run in parallel
+  static long[] supersetSums(int size, IntRankTable upper, ForkJoinPool pool) throws Exception {
+    final long[] sums = new long[BINOMIAL[RANGE][size]];
+    pool.submit(() -> IntStream.range(0, sums.length).parallel().forEach(rank -> {
+      final int[] subset = new int[size];
+      unrank(rank, subset, size);
+      // rank of subset + x is low[p] + C(x - 1, p + 1) + high[p] where p numbers of the subset are below x
+      final int[] low = new int[size + 1];
+      final int[] high = new int[size + 1];
+      for (int i = 0; i < size; i++) {
+        low[i + 1] = low[i] + BINOMIAL[subset[i] - 1][i + 1];
+      }
+      for (int i = size - 1; i >= 0; i--) {
+        high[i] = high[i + 1] + BINOMIAL[subset[i] - 1][i + 2];
+      }
+      long sum = 0;
+      int p = 0;
+      for (int x = 1; x <= RANGE; x++) {
+        if (p < size && subset[p] == x) {
+          p++;
+          continue;
+        }
+        sum += upper.get(low[p] + BINOMIAL[x - 1][p + 1] + high[p]);
+      }
+      sums[rank] = sum / (PICK - size); // every ticket is reached once from each of its numbers outside the subset
+    })).get();
+    return sums;
+  }
+
+  interface IntRankTable {
+    long get(int rank);
+  }
+
+  // tiers and payout of a draw, tiers[k] is the number of tickets matching k numbers
+  static long settle(int[] draw, int[] counts, long[] g5, long[] g4, long[] g3, long[] tiers) {
+    // binomials of each number at each position, subset ranks are sums of them
+    long a5 = 0;
+    for (int[] subset : SUBSETS5) {
+      a5 += g5[BINOMIAL[draw[subset[0]] - 1][1] + BINOMIAL[draw[subset[1]] - 1][2] + BINOMIAL[draw[subset[2]] - 1][3]
+        + BINOMIAL[draw[subset[3]] - 1][4] + BINOMIAL[draw[subset[4]] - 1][5]];
+    }
+    long a4 = 0;
+    for (int[] subset : SUBSETS4) {
+      a4 += g4[BINOMIAL[draw[subset[0]] - 1][1] + BINOMIAL[draw[subset[1]] - 1][2] + BINOMIAL[draw[subset[2]] - 1][3]
+        + BINOMIAL[draw[subset[3]] - 1][4]];
+    }
+    long a3 = 0;
+    for (int[] subset : SUBSETS3) {
+      a3 += g3[BINOMIAL[draw[subset[0]] - 1][1] + BINOMIAL[draw[subset[1]] - 1][2] + BINOMIAL[draw[subset[2]] - 1][3]];
+    }
+    final long n6 = counts[rank(draw, PICK)];
+    final long n5 = a5 - 6 * n6;
+    final long n4 = a4 - 5 * n5 - 15 * n6;
+    final long n3 = a3 - 4 * n4 - 10 * n5 - 20 * n6;
+    tiers[6] = n6;
+    tiers[5] = n5;
+    tiers[4] = n4;
+    tiers[3] = n3;
+    return n6 * PRIZES[6] + n5 * PRIZES[5] + n4 * PRIZES[4] + n3 * PRIZES[3];
+  }
+
+  // payouts of a range of draws
+  static final class Exposure {
+
+    final long[] buckets = new long[65]; // draws by payout, bucket b holds [2^(b-1), 2^b), 0 holds no payout
+    double sum;
+    long min = Long.MAX_VALUE;
+    long max;
+    final PriorityQueue<long[]> worst = new PriorityQueue<>(Exposure::compare); // payout and rank, the least of them first
+
+    // smaller payout first, the bigger rank first on a tie so that the lower ranks stay
+    static int compare(long[] a, long[] b) {
+      return a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(b[1], a[1]);
+    }
+
+    void add(long payout, int rank) {
+      this.buckets[64 - Long.numberOfLeadingZeros(payout)]++;
+      this.sum += payout;
+      this.min = Math.min(this.min, payout);
+      this.max = Math.max(this.max, payout);
+      offer(new long[] { payout, rank });
+    }
+
+    private void offer(long[] entry) {
+      if (WORST == 0) return;
+      if (this.worst.size() < WORST) {
+        this.worst.add(entry);
+      }
+      else if (compare(entry, this.worst.peek()) > 0) {
+        this.worst.poll();
+        this.worst.add(entry);
+      }
+    }
+
+    Exposure addAll(Exposure other) {
+      for (int b = 0; b < this.buckets.length; b++) {
+        this.buckets[b] += other.buckets[b];
+      }
+      this.sum += other.sum;
+      this.min = Math.min(this.min, other.min);
+      this.max = Math.max(this.max, other.max);
+      for (long[] entry : other.worst) {
+        offer(entry);
+      }
+      return this;
+    }
+  }
+
+  // settles draws of [from, to) in colex order, halves are forked until a range is small enough
+  @SuppressWarnings("serial") // never serialized
+  static final class SettleTask extends RecursiveTask<Exposure> {
+
+    final int from;
+    final int to;
+    final int[] counts;
+    final long[] g5;
+    final long[] g4;
+    final long[] g3;
+
+    SettleTask(int from, int to, int[] counts, long[] g5, long[] g4, long[] g3) {
+      this.from = from;
+      this.to = to;
+      this.counts = counts;
+      this.g5 = g5;
+      this.g4 = g4;
+      this.g3 = g3;
+    }
+
+    @Override
+    protected Exposure compute() {
+      if (this.to - this.from > LEAF_DRAWS) {
+        final int middle = (this.from + this.to) >>> 1;
+        final SettleTask left = new SettleTask(this.from, middle, this.counts, this.g5, this.g4, this.g3);
+        left.fork();
+        final Exposure right = new SettleTask(middle, this.to, this.counts, this.g5, this.g4, this.g3).compute();
+        return left.join().addAll(right);
+      }
+      final Exposure exposure = new Exposure();
+      final int[] draw = new int[PICK];
+      final long[] tiers = new long[PICK + 1];
+      unrank(this.from, draw, PICK);
+      for (int rank = this.from; rank < this.to; rank++) {
+        exposure.add(settle(draw, this.counts, this.g5, this.g4, this.g3, tiers), rank);
+        if (rank + 1 < this.to) next(draw);
+      }
+      return exposure;
+    }
+  }
+
+  private static String numbers(int[] draw) {
+    final StringBuilder numbers = new StringBuilder();
+    for (int number : draw) {
+      if (!numbers.isEmpty()) numbers.append(';');
+      numbers.append(number);
+    }
+    return numbers.toString();
+  }
+
+  private static String tiers(long[] tiers) {
+    return tiers[6] + ";" + tiers[5] + ";" + tiers[4] + ";" + tiers[3];
+  }
+
+  // draws given as arguments, PICK numbers each, checked before the pool is scanned
+  private static int[][] parseDraws(String[] args) {
+    if (args.length % PICK != 0) {
+      throw new IllegalArgumentException("Expected " + PICK + " numbers for every draw: " + Arrays.toString(args));
+    }
+    final int[][] draws = new int[args.length / PICK][];
+    for (int d = 0; d < draws.length; d++) {
+      final int[] draw = Arrays.stream(args, d * PICK, (d + 1) * PICK).mapToInt(Integer::parseInt).sorted().toArray();
+      for (int i = 0; i < PICK; i++) {
+        if (draw[i] < 1 || draw[i] > RANGE || (i > 0 && draw[i] == draw[i - 1])) {
+          throw new IllegalArgumentException("Numbers must be unique in [1-" + RANGE + "]: " + Arrays.toString(draw));
+        }
+      }
+      draws[d] = draw;
+    }
+    return draws;
+  }
+
+  public static void main(String[] args) throws Exception {
+    final int[][] draws = parseDraws(args);
+    var concurrency = WORKERS;
+    final long fileSize = Files.size(DATA_FILE);
+    long chunkSize = CHUNK_SIZE;
+
+    if (fileSize <= 1 << 20) { // small file (under 1mb), run in single-thread mode
+      concurrency = 1;
+      chunkSize = Math.max(fileSize, 1);
+    }
+
+    System.out.println("Concurrency: " + concurrency);
+    System.out.println("File size: " + fileSize);
+    System.out.println("Draws: " + DRAWS);
+
+    // 1. combination counts, one scan of the pool
+    final int[] counts = new int[DRAWS];
+    long tickets = 0;
+    long invalid = 0;
+    if (fileSize > 0) {
+      final FileChannel channel = (FileChannel) Files.newByteChannel(DATA_FILE, StandardOpenOption.READ);
+      final MemorySegment memory = channel.map(MapMode.READ_ONLY, 0, fileSize, Arena.global());
+      final AtomicLong cursor = new AtomicLong();
+      final RegionWorker[] workers = new RegionWorker[concurrency];
+      for (int i = 0; i < concurrency; i++) {
+        workers[i] = new RegionWorker(memory, fileSize, cursor, chunkSize, counts);
+        workers[i].start();
+      }
+      for (RegionWorker worker : workers) {
+        worker.join();
+        tickets += worker.tickets;
+        invalid += worker.invalid;
+      }
+    }
+    System.out.println("Tickets: " + tickets);
+    if (invalid > 0) {
+      System.out.println("Invalid tickets: " + invalid);
+    }
+
+    // 2. superset sums, layer by layer, then 3. every draw
+    final ForkJoinPool pool = new ForkJoinPool(WORKERS);
+    final long[] g5 = supersetSums(5, rank -> counts[rank], pool);
+    final long[] g4 = supersetSums(4, rank -> g5[rank], pool);
+    final long[] g3 = supersetSums(3, rank -> g4[rank], pool);
+    final Exposure exposure = pool.invoke(new SettleTask(0, DRAWS, counts, g5, g4, g3));
+    pool.shutdown();
+
+    final StringBuilder out = new StringBuilder();
+    for (int[] draw : draws) {
+      final long[] tiers = new long[PICK + 1];
+      final long payout = settle(draw, counts, g5, g4, g3, tiers);
+      out.append("Draw ").append(numbers(draw)).append(": payout ").append(payout).append(", tiers 6;5;4;3 ").append(tiers(tiers)).append('\n');
+    }
+    out.append("Payout min: ").append(exposure.min).append('\n');
+    out.append("Payout mean: ").append(String.format("%.2f", exposure.sum / DRAWS)).append('\n');
+    out.append("Payout max: ").append(exposure.max).append('\n');
+    out.append("Distribution:\n");
+    for (int b = 0; b < exposure.buckets.length; b++) {
+      if (exposure.buckets[b] == 0) continue;
+      final long from = b == 0 ? 0 : 1L << (b - 1);
+      final long to = b == 0 ? 0 : (1L << (b - 1)) * 2 - 1;
+      out.append(from).append('-').append(to).append(';').append(exposure.buckets[b]).append('\n');
+    }
+    final List<long[]> worst = new ArrayList<>(exposure.worst);
+    worst.sort((a, b) -> Exposure.compare(b, a)); // highest payout first
+    out.append("Worst ").append(worst.size()).append(" (numbers;payout;6;5;4;3):\n");
+    final int[] draw = new int[PICK];
+    final long[] tiers = new long[PICK + 1];
+    for (long[] entry : worst) {
+      unrank((int) entry[1], draw, PICK);
+      settle(draw, counts, g5, g4, g3, tiers);
+      out.append(numbers(draw)).append(';').append(entry[0]).append(';').append(tiers(tiers)).append('\n');
+    }
+    System.out.print(out);
+    System.out.flush();
+  }
+
+}
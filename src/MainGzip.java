@@ -0,0 +1,379 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * Bitmask solution over a block compressed pool, pool.csv.gz is a series of independent gzip members.
+ *
+ * Members are cut at line starts (-DblockSize=4m of plain text each), so every member can be inflated and scanned
+ * on its own. Concatenated members are still a valid gzip file, zcat and gunzip read it as usual.
+ * The sidecar pool.csv.gz.idx has the offset and both sizes of every member:
+ *  - header  : magic, member count, largest plain size (8 bytes each) padded to 32 bytes
+ *  - members : compressed offset (8 bytes), compressed length (4 bytes), plain length (4 bytes)
+ *
+ * Run with -Dcompress=true once to write both files from pool.csv, -Dlevel=6 for the deflate level.
+ * Workers claim members one by one, inflate them with their own Inflater into a reusable off-heap buffer and
+ * scan it with the same SWAR loop as MainBitmask. -Dmatch=5 and -Dworkers=8 are supported.
+ *
+ * Big thanks to Mike, for bringing this challenge.
+ *
+ * Follow me at: github.com/yavuztas
+ */
+public class MainGzip {
+
+  private static final Path DATA_FILE = Path.of("pool.csv");
+  private static final Path GZIP_FILE = Path.of("pool.csv.gz");
+  private static final Path INDEX_FILE = Path.of("pool.csv.gz.idx");
+
+  private static final long MAGIC = 0x3158495a47544f4cL; // "LOTGZIX1"
+  private static final int HEADER_SIZE = 32;
+  private static final int ENTRY_SIZE = 16;
+
+  private static final int WORKERS = Integer.getInteger("workers", Runtime.getRuntime().availableProcessors());
+  private static final int BLOCK_SIZE = (int) parseSize(System.getProperty("blockSize", "4m"));
+  private static final int LEVEL = Integer.getInteger("level", Deflater.DEFAULT_COMPRESSION);
+
+  private static final int MATCH_NUMBERS = Integer.getInteger("match", 6); // how many numbers to match for a winner
+  private static final boolean EXACT_MATCH = MATCH_NUMBERS == 6;
+
+  // numeric tail of a line is 18 bytes at most (6 x ";dd"), three words always cover it
+  private static final int TAIL_BYTES = 24;
+  private static final int PADDING = TAIL_BYTES; // in front of the plain text, its last byte is a linebreak
+
+  // gzip member header without optional fields: magic, deflate, no flags, no mtime, no extra flags, unknown os
+  private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+  private static final int GZIP_TRAILER = 8; // crc32 and plain size
+  private static final ValueLayout.OfInt GZIP_INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+  // size with an optional k, m or g suffix
+  static long parseSize(String size) {
+    final char unit = Character.toLowerCase(size.charAt(size.length() - 1));
+    final int shift = unit == 'k' ? 10 : unit == 'm' ? 20 : unit == 'g' ? 30 : 0;
+    return Long.parseLong(shift == 0 ? size : size.substring(0, size.length() - 1)) << shift;
+  }
+
+  private static long findPreviousLinebreak(MemorySegment segment, long offset) {
+    long position = offset;
+    while (segment.get(ValueLayout.JAVA_BYTE, position) != '\n') { // read until a linebreak, padding ends with one
+      position--;
+    }
+    return position;
+  }
+
+  private static long findNextSemicolon(MemorySegment segment, long offset) {
+    long position = offset;
+    while (segment.get(ValueLayout.JAVA_BYTE, position) != ';') { // names cannot contain ';', first one ends the name
+      position++;
+    }
+    return position;
+  }
+
+  // first line start at or after the offset, so members always hold whole lines
+  private static long nextLineStart(MemorySegment segment, long offset, long fileSize) {
+    long position = Math.min(offset, fileSize);
+    while (position > 0 && position < fileSize && segment.get(ValueLayout.JAVA_BYTE, position - 1) != '\n') {
+      position++;
+    }
+    return position;
+  }
+
+  // hasvalue & haszero
+  // adapted from https://graphics.stanford.edu/~seander/bithacks.html#ZeroInWord
+  // returns [0-7] otherwise 8 when no match
+  private static int linebreakPos(long word) {
+    // // hasvalue
+    final long hasVal = word ^ 0xa0a0a0a0a0a0a0aL; // semicolon pattern
+    return Long.numberOfTrailingZeros(((hasVal - 0x0101010101010101L) & ~hasVal & 0x8080808080808080L)) >>> 3; // haszero
+  }
+
+  // same as MainBitmask.ticketMask, see there for details
+  static long ticketMask(MemorySegment segment, long lineEnd) {
+    long w0 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 8);
+    long w1 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 16);
+    long w2 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 24);
+    long mask = 0;
+    for (int i = 0; i < 6; i++) {
+      final long ones = (w0 >>> 56) & 0xF;
+      final long tens = (w0 >>> 48) & 0xFF;
+      final long twoDigits = (tens - ';') >>> 63; // 1 when it's a digit, 0 when it's ';' since digits are below ';' in ascii
+      mask |= 1L << (ones + (twoDigits * 10 * (tens & 0xF)));
+      final int shift = (int) (16 + (twoDigits << 3)); // 2 or 3 bytes
+      w0 = (w0 << shift) | (w1 >>> (64 - shift));
+      w1 = (w1 << shift) | (w2 >>> (64 - shift));
+      w2 <<= shift;
+    }
+    return mask;
+  }
+
+  static long drawMask(String[] input) {
+    long mask = 0;
+    for (String number : input) {
+      final int n = Integer.parseInt(number);
+      if (n < 1 || n > 49) {
+        throw new IllegalArgumentException("Numbers must be unique in [1-49]: " + Arrays.toString(input));
+      }
+      mask |= 1L << n;
+    }
+    if (input.length != 6 || Long.bitCount(mask) != 6) { // a repeated number sets the same bit
+      throw new IllegalArgumentException("Expected 6 unique numbers: " + Arrays.toString(input));
+    }
+    return mask;
+  }
+
+  // one gzip member of the plain range, deflater is reused by the thread
+  private static byte[] compressMember(MemorySegment plain, long start, long end, ThreadLocal<Deflater> deflaters) {
+    final ByteBuffer input = plain.asSlice(start, end - start).asByteBuffer();
+    final CRC32 crc = new CRC32();
+    crc.update(input.duplicate());
+
+    final Deflater deflater = deflaters.get();
+    deflater.reset();
+    deflater.setInput(input);
+    deflater.finish();
+    final ByteArrayOutputStream member = new ByteArrayOutputStream((int) (end - start) / 3);
+    member.writeBytes(GZIP_HEADER);
+    final byte[] chunk = new byte[1 << 16];
+    while (!deflater.finished()) {
+      member.write(chunk, 0, deflater.deflate(chunk));
+    }
+    final ByteBuffer trailer = ByteBuffer.allocate(GZIP_TRAILER).order(ByteOrder.LITTLE_ENDIAN);
+    trailer.putInt((int) crc.getValue()).putInt((int) (end - start));
+    member.writeBytes(trailer.array());
+    return member.toByteArray();
+  }
+
+  private static void compress() throws Exception {
+    try (FileChannel in = FileChannel.open(DATA_FILE, StandardOpenOption.READ);
+         FileChannel out = FileChannel.open(GZIP_FILE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+         FileChannel index = FileChannel.open(INDEX_FILE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      final long fileSize = in.size();
+      final MemorySegment plain = in.map(MapMode.READ_ONLY, 0, fileSize, Arena.global());
+
+      // member boundaries first, snapped to line starts
+      final List<long[]> ranges = new ArrayList<>();
+      long start = 0;
+      while (start < fileSize) {
+        final long end = nextLineStart(plain, start + BLOCK_SIZE, fileSize);
+        if (end - start > Integer.MAX_VALUE - PADDING) {
+          throw new IllegalStateException("Line is too long at offset: " + start);
+        }
+        ranges.add(new long[] { start, end });
+        start = end;
+      }
+
+      // compressed in parallel, written in order, at most 2 members per worker are waiting in memory
+      final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(LEVEL, true));
+      final ExecutorService executor = Executors.newFixedThreadPool(WORKERS);
+      final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+      final ByteBuffer entries = ByteBuffer.allocate(HEADER_SIZE + ranges.size() * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      entries.position(HEADER_SIZE);
+      long maxPlainSize = 0;
+      long offset = 0;
+      int next = 0;
+      try {
+        while (next < ranges.size() || !pending.isEmpty()) {
+          while (next < ranges.size() && pending.size() < 2 * WORKERS) {
+            final long[] range = ranges.get(next++);
+            pending.add(executor.submit(() -> compressMember(plain, range[0], range[1], deflaters)));
+          }
+          final long[] range = ranges.get(next - pending.size());
+          final byte[] member = pending.poll().get();
+          out.write(ByteBuffer.wrap(member));
+          entries.putLong(offset).putInt(member.length).putInt((int) (range[1] - range[0]));
+          maxPlainSize = Math.max(maxPlainSize, range[1] - range[0]);
+          offset += member.length;
+        }
+      }
+      finally {
+        executor.shutdown();
+      }
+      entries.putLong(0, MAGIC).putLong(8, ranges.size()).putLong(16, maxPlainSize).putLong(24, 0);
+      index.write(entries.flip());
+
+      System.out.println("Members: " + ranges.size());
+      System.out.println("Plain size: " + fileSize);
+      System.out.println("Compressed size: " + offset);
+    }
+  }
+
+  static class RegionWorker extends Thread {
+
+    final MemorySegment compressed;
+    final MemorySegment index;
+    final int members;
+    final AtomicInteger cursor; // next member to claim, shared by all workers
+
+    final Inflater inflater = new Inflater(true); // raw deflate, gzip header and trailer are skipped by offset
+    final CRC32 crc = new CRC32(); // checked against the trailer, raw deflate doesn't
+    final MemorySegment segment; // reused for every member, plain text starts after the padding
+    final long drawMask;
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    Exception failure; // a corrupt member, main fails with it after the joins
+
+    RegionWorker(MemorySegment compressed, MemorySegment index, AtomicInteger cursor, long maxPlainSize, long drawMask) {
+      this.compressed = compressed;
+      this.index = index;
+      this.members = (int) index.get(ValueLayout.JAVA_LONG_UNALIGNED, 8);
+      this.cursor = cursor;
+      this.segment = Arena.ofAuto().allocate(PADDING + maxPlainSize + 1, 8);
+      this.segment.set(ValueLayout.JAVA_BYTE, PADDING - 1, (byte) '\n'); // the first line of a member ends the search for its start here
+      this.drawMask = drawMask;
+    }
+
+    private void check(long lineBreakPos) {
+      final long ticket = ticketMask(this.segment, lineBreakPos); // padding in front covers short first lines
+      if (EXACT_MATCH ? ticket == this.drawMask : Long.bitCount(ticket & this.drawMask) == MATCH_NUMBERS) { // found a match
+        final long start = findPreviousLinebreak(this.segment, lineBreakPos - 1) + 1;
+        final long end = findNextSemicolon(this.segment, start);
+        this.output.write(this.segment.asSlice(start, end - start).toArray(ValueLayout.JAVA_BYTE), 0, (int) (end - start));
+        this.output.write('\n');
+      }
+    }
+
+    private long inflate(int member) throws DataFormatException {
+      final long entry = HEADER_SIZE + (long) member * ENTRY_SIZE;
+      final long offset = this.index.get(ValueLayout.JAVA_LONG_UNALIGNED, entry);
+      final int length = this.index.get(ValueLayout.JAVA_INT_UNALIGNED, entry + 8);
+      final int plainLength = this.index.get(ValueLayout.JAVA_INT_UNALIGNED, entry + 12);
+
+      this.inflater.reset();
+      this.inflater.setInput(this.compressed.asSlice(offset + GZIP_HEADER.length, length - GZIP_HEADER.length - GZIP_TRAILER).asByteBuffer());
+      final ByteBuffer plain = this.segment.asSlice(PADDING, plainLength).asByteBuffer();
+      while (!this.inflater.finished() && plain.hasRemaining()) {
+        if (this.inflater.inflate(plain) == 0 && this.inflater.needsInput()) break;
+      }
+      if (!this.inflater.finished() || plain.hasRemaining()) {
+        throw new DataFormatException("Member " + member + " doesn't match the index");
+      }
+      this.crc.reset();
+      this.crc.update(plain.flip());
+      final long trailer = offset + length - GZIP_TRAILER;
+      if ((int) this.crc.getValue() != this.compressed.get(GZIP_INT, trailer) || plainLength != this.compressed.get(GZIP_INT, trailer + 4)) {
+        throw new DataFormatException("Member " + member + " fails its crc32 or size check");
+      }
+      return PADDING + plainLength;
+    }
+
+    @Override
+    public void run() {
+      try {
+        int member;
+        while ((member = this.cursor.getAndIncrement()) < this.members) { // claim the next member
+          final long end = inflate(member);
+          // a pool without a last linebreak, end of the file is the end of its last line
+          if (member == this.members - 1 && this.segment.get(ValueLayout.JAVA_BYTE, end - 1) != '\n') {
+            this.segment.set(ValueLayout.JAVA_BYTE, end, (byte) '\n');
+            scan(PADDING, end + 1);
+          }
+          else {
+            scan(PADDING, end);
+          }
+        }
+      }
+      catch (DataFormatException | RuntimeException e) {
+        this.failure = e;
+      }
+      finally {
+        this.inflater.end();
+      }
+    }
+
+    // same loop as in MainBitmask, over the plain text of a member
+    void scan(long start, long end) {
+      long word;
+      long relativePos = 8;
+      long lineBreakPos = end;
+      long position = end; // scan the segment reverse
+      final long loopCount = (end - start) / 8; // 8 bytes at a time
+      for (int i = 0; i < loopCount; i++) {
+        if (relativePos != 8) {
+          check(lineBreakPos);
+        }
+
+        word = this.segment.get(ValueLayout.JAVA_LONG_UNALIGNED, position - 8); // read a word of 8 bytes each time
+        relativePos = linebreakPos(word); // linebreak position in the word, if not returns 8
+        lineBreakPos = position - 8 + relativePos;
+
+        position -= 8; // move pointer 8 bytes to the back
+      }
+      if (relativePos != 8) { // the last linebreak found
+        check(lineBreakPos);
+      }
+      // less than a word left at the member start, there can be one linebreak at most
+      while (--position >= start) {
+        if (this.segment.get(ValueLayout.JAVA_BYTE, position) == '\n') {
+          check(position);
+        }
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (Boolean.getBoolean("compress")) {
+      compress();
+      return;
+    }
+
+    System.out.println("Input: " + Arrays.toString(args));
+    final long drawMask = drawMask(args);
+
+    try (FileChannel gzip = FileChannel.open(GZIP_FILE, StandardOpenOption.READ);
+         FileChannel index = FileChannel.open(INDEX_FILE, StandardOpenOption.READ)) {
+      final MemorySegment compressed = gzip.map(MapMode.READ_ONLY, 0, gzip.size(), Arena.global());
+      final MemorySegment entries = index.map(MapMode.READ_ONLY, 0, index.size(), Arena.global());
+      if (entries.get(ValueLayout.JAVA_LONG_UNALIGNED, 0) != MAGIC) {
+        throw new IllegalStateException("Not a member index: " + INDEX_FILE);
+      }
+      final long members = entries.get(ValueLayout.JAVA_LONG_UNALIGNED, 8);
+      final long maxPlainSize = entries.get(ValueLayout.JAVA_LONG_UNALIGNED, 16);
+      final int concurrency = (int) Math.max(1, Math.min(WORKERS, members));
+
+      System.out.println("Concurrency: " + concurrency);
+      System.out.println("Members: " + members);
+      System.out.println("Compressed size: " + gzip.size());
+
+      final AtomicInteger cursor = new AtomicInteger();
+      final RegionWorker[] workers = new RegionWorker[concurrency];
+      for (int i = 0; i < concurrency; i++) {
+        workers[i] = new RegionWorker(compressed, entries, cursor, maxPlainSize, drawMask);
+        workers[i].start();
+      }
+      System.out.flush();
+      for (RegionWorker worker : workers) {
+        worker.join();
+      }
+      // members of a failed worker are not scanned, winners of the others alone are no result
+      for (RegionWorker worker : workers) {
+        if (worker.failure != null) {
+          throw new IllegalStateException("Scanning the pool failed", worker.failure);
+        }
+      }
+      for (RegionWorker worker : workers) {
+        worker.output.writeTo(System.out);
+      }
+      System.out.flush();
+    }
+  }
+
+}
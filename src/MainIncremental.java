@@ -0,0 +1,376 @@
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Incremental version of the bitmask solution for a pool.csv that only grows by appending.
+ *
+ * The processed offset and the winners of every draw seen so far are kept in a state file (pool.state).
+ * Each run maps and scans only the bytes appended since the last run, up to the last complete line.
+ * A partial last line is left for the next run, so a line being written is never matched half way.
+ * A new draw is scanned from the beginning once, then it follows the tail like the others.
+ * When the pool got smaller than the processed offset (truncated or rotated) the state is thrown away.
+ *
+ * Run with -Dstate=other.state to use another state file, -Dreset=true to start over.
+ * -Dmatch=5 is supported as in MainBitmask, the state is reset when it changes.
+ *
+ * Big thanks to Mike, for bringing this challenge.
+ *
+ * Follow me at: github.com/yavuztas
+ */
+public class MainIncremental {
+
+  private static final Path DATA_FILE = Path.of("pool.csv");
+  private static final Path STATE_FILE = Path.of(System.getProperty("state", "pool.state"));
+  private static final boolean RESET = Boolean.getBoolean("reset");
+
+  private static final long MAGIC = 0x3154415453544f4cL; // "LOTSTAT1"
+  private static final int STATE_VERSION = 1;
+
+  // workers claim line aligned chunks from a shared cursor, -Dworkers=16 -DchunkSize=4m to tune
+  private static final int WORKERS = Integer.getInteger("workers", Runtime.getRuntime().availableProcessors());
+  private static final long CHUNK_SIZE = parseSize(System.getProperty("chunkSize", "8m"));
+
+  private static final int MATCH_NUMBERS = Integer.getInteger("match", 6); // how many numbers to match for a winner
+  private static final boolean EXACT_MATCH = MATCH_NUMBERS == 6;
+
+  // numeric tail of a line is 18 bytes at most (6 x ";dd"), three words always cover it
+  private static final int TAIL_BYTES = 24;
+
+  // size with an optional k, m or g suffix
+  static long parseSize(String size) {
+    final char unit = Character.toLowerCase(size.charAt(size.length() - 1));
+    final int shift = unit == 'k' ? 10 : unit == 'm' ? 20 : unit == 'g' ? 30 : 0;
+    return Long.parseLong(shift == 0 ? size : size.substring(0, size.length() - 1)) << shift;
+  }
+
+  private static long findPreviousLinebreak(MemorySegment segment, long offset) {
+    long position = offset;
+    while (segment.get(ValueLayout.JAVA_BYTE, position) != '\n') { // read until a linebreak
+      position--;
+      if (position == 0) // no newline found
+        return -1;
+    }
+    return position;
+  }
+
+  private static long findNextSemicolon(MemorySegment segment, long offset) {
+    long position = offset;
+    while (segment.get(ValueLayout.JAVA_BYTE, position) != ';') { // names cannot contain ';', first one ends the name
+      position++;
+    }
+    return position;
+  }
+
+  // first line start at or after the offset, so chunks always hold whole lines
+  private static long nextLineStart(MemorySegment segment, long offset, long fileSize) {
+    long position = Math.min(offset, fileSize);
+    while (position > 0 && position < fileSize && segment.get(ValueLayout.JAVA_BYTE, position - 1) != '\n') {
+      position++;
+    }
+    return position;
+  }
+
+  // hasvalue & haszero
+  // adapted from https://graphics.stanford.edu/~seander/bithacks.html#ZeroInWord
+  // returns [0-7] otherwise 8 when no match
+  private static int linebreakPos(long word) {
+    // // hasvalue
+    final long hasVal = word ^ 0xa0a0a0a0a0a0a0aL; // semicolon pattern
+    return Long.numberOfTrailingZeros(((hasVal - 0x0101010101010101L) & ~hasVal & 0x8080808080808080L)) >>> 3; // haszero
+  }
+
+  // same as MainBitmask.ticketMask, see there for details
+  static long ticketMask(MemorySegment segment, long lineEnd) {
+    long w0 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 8);
+    long w1 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 16);
+    long w2 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 24);
+    long mask = 0;
+    for (int i = 0; i < 6; i++) {
+      final long ones = (w0 >>> 56) & 0xF;
+      final long tens = (w0 >>> 48) & 0xFF;
+      final long twoDigits = (tens - ';') >>> 63; // 1 when it's a digit, 0 when it's ';' since digits are below ';' in ascii
+      mask |= 1L << (ones + (twoDigits * 10 * (tens & 0xF)));
+      final int shift = (int) (16 + (twoDigits << 3)); // 2 or 3 bytes
+      w0 = (w0 << shift) | (w1 >>> (64 - shift));
+      w1 = (w1 << shift) | (w2 >>> (64 - shift));
+      w2 <<= shift;
+    }
+    return mask;
+  }
+
+  static long ticketMaskSlow(MemorySegment segment, long lineEnd) {
+    long mask = 0;
+    long pos = lineEnd - 1;
+    for (int i = 0; i < 6; i++) {
+      int number = segment.get(ValueLayout.JAVA_BYTE, pos) - '0';
+      final byte b = segment.get(ValueLayout.JAVA_BYTE, pos - 1);
+      if (b != ';') {
+        pos--; // skip tens digit
+        number += (b - '0') * 10;
+      }
+      pos -= 2;
+      mask |= 1L << number;
+    }
+    return mask;
+  }
+
+  static long drawMask(String[] input) {
+    long mask = 0;
+    for (String number : input) {
+      final int n = Integer.parseInt(number);
+      if (n < 1 || n > 49) {
+        throw new IllegalArgumentException("Numbers must be unique in [1-49]: " + Arrays.toString(input));
+      }
+      mask |= 1L << n;
+    }
+    if (input.length != 6 || Long.bitCount(mask) != 6) { // a repeated number sets the same bit
+      throw new IllegalArgumentException("Expected 6 unique numbers: " + Arrays.toString(input));
+    }
+    return mask;
+  }
+
+  // winners of a draw up to the processed offset
+  static final class DrawResult {
+    final long mask;
+    long winners;
+    final ByteArrayOutputStream names = new ByteArrayOutputStream(); // one name per line
+
+    DrawResult(long mask) {
+      this.mask = mask;
+    }
+  }
+
+  static final class State {
+    long offset; // everything before is processed, always a line start
+    final List<DrawResult> draws = new ArrayList<>();
+
+    DrawResult find(long mask) {
+      for (DrawResult draw : this.draws) {
+        if (draw.mask == mask) return draw;
+      }
+      return null;
+    }
+  }
+
+  static State readState(Path file) throws IOException {
+    final State state = new State();
+    if (RESET || !Files.exists(file)) return state;
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (Long.reverseBytes(in.readLong()) != MAGIC || in.readInt() != STATE_VERSION || in.readInt() != MATCH_NUMBERS) {
+        return state; // unknown or made for another match count, start over
+      }
+      state.offset = in.readLong();
+      final int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        final DrawResult draw = new DrawResult(in.readLong());
+        draw.winners = in.readLong();
+        draw.names.write(in.readNBytes(in.readInt()));
+        state.draws.add(draw);
+      }
+    }
+    return state;
+  }
+
+  // written next to the old one and moved over, a crash never leaves a half written state
+  static void writeState(Path file, State state) throws IOException {
+    final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+      out.writeLong(Long.reverseBytes(MAGIC));
+      out.writeInt(STATE_VERSION);
+      out.writeInt(MATCH_NUMBERS);
+      out.writeLong(state.offset);
+      out.writeInt(state.draws.size());
+      for (DrawResult draw : state.draws) {
+        out.writeLong(draw.mask);
+        out.writeLong(draw.winners);
+        out.writeInt(draw.names.size());
+        draw.names.writeTo(out);
+      }
+    }
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  // processed offset is trusted only when the byte before it is still a linebreak, otherwise the pool was rewritten
+  static boolean isValidOffset(FileChannel channel, long offset, long fileSize) throws IOException {
+    if (offset == 0) return true;
+    if (offset > fileSize) return false;
+    final ByteBuffer buffer = ByteBuffer.allocate(1);
+    return channel.read(buffer, offset - 1) == 1 && buffer.get(0) == '\n';
+  }
+
+  // end of the last complete line, the partial line after it is carried over to the next run
+  static long lastLineEnd(FileChannel channel, long from, long fileSize) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(4096);
+    long end = fileSize;
+    while (end > from) {
+      final int length = (int) Math.min(buffer.capacity(), end - from);
+      buffer.clear().limit(length);
+      channel.read(buffer, end - length);
+      for (int i = length - 1; i >= 0; i--) {
+        if (buffer.get(i) == '\n') return end - length + i + 1;
+      }
+      end -= length;
+    }
+    return from;
+  }
+
+  static class RegionWorker extends Thread {
+
+    final MemorySegment segment; // starts at a line start, ends with a linebreak
+    final long size;
+    final AtomicLong cursor; // start of the next chunk to claim, shared by all workers
+
+    final long[] masks;
+    final long[] winners;
+    final ByteArrayOutputStream[] names;
+
+    public RegionWorker(MemorySegment memory, AtomicLong cursor, long[] masks) {
+      this.segment = memory;
+      this.size = memory.byteSize();
+      this.cursor = cursor;
+      this.masks = masks;
+      this.winners = new long[masks.length];
+      this.names = new ByteArrayOutputStream[masks.length];
+      for (int i = 0; i < masks.length; i++) {
+        this.names[i] = new ByteArrayOutputStream();
+      }
+    }
+
+    private void check(long lineBreakPos) {
+      final long ticket = lineBreakPos >= TAIL_BYTES ? ticketMask(this.segment, lineBreakPos) : ticketMaskSlow(this.segment, lineBreakPos);
+      for (int i = 0; i < this.masks.length; i++) { // only a few draws are followed, a linear walk is enough
+        if (EXACT_MATCH ? ticket == this.masks[i] : Long.bitCount(ticket & this.masks[i]) == MATCH_NUMBERS) { // found a match
+          final long start = findPreviousLinebreak(this.segment, lineBreakPos - 1) + 1;
+          final long end = findNextSemicolon(this.segment, start);
+          this.names[i].write(this.segment.asSlice(start, end - start).toArray(ValueLayout.JAVA_BYTE), 0, (int) (end - start));
+          this.names[i].write('\n');
+          this.winners[i]++;
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      long chunkStart;
+      while ((chunkStart = this.cursor.getAndAdd(CHUNK_SIZE)) < this.size) { // claim the next chunk
+        final long start = nextLineStart(this.segment, chunkStart, this.size);
+        final long end = nextLineStart(this.segment, chunkStart + CHUNK_SIZE, this.size);
+        scan(start, end);
+      }
+    }
+
+    // scan a line aligned chunk reverse, every line here ends with a linebreak
+    void scan(long start, long end) {
+      long word;
+      long relativePos = 8;
+      long lineBreakPos = end;
+      long position = end; // scan the segment reverse
+      final long loopCount = (end - start) / 8; // 8 bytes at a time
+      for (int i = 0; i < loopCount; i++) {
+        if (relativePos != 8) {
+          check(lineBreakPos);
+        }
+
+        word = this.segment.get(ValueLayout.JAVA_LONG_UNALIGNED, position - 8); // read a word of 8 bytes each time
+        relativePos = linebreakPos(word); // linebreak position in the word, if not returns 8
+        lineBreakPos = position - 8 + relativePos;
+
+        position -= 8; // move pointer 8 bytes to the back
+      }
+      if (relativePos != 8) { // the last linebreak found
+        check(lineBreakPos);
+      }
+      // less than a word left at the chunk start, there can be one linebreak at most
+      while (--position >= start) {
+        if (this.segment.get(ValueLayout.JAVA_BYTE, position) == '\n') {
+          check(position);
+        }
+      }
+    }
+  }
+
+  // scans [start, end) of the pool for the given draws and adds the winners to their results
+  static void scanRange(FileChannel channel, long start, long end, List<DrawResult> draws) throws InterruptedException, IOException {
+    if (start >= end || draws.isEmpty()) return;
+
+    final long[] masks = new long[draws.size()];
+    for (int i = 0; i < masks.length; i++) {
+      masks[i] = draws.get(i).mask;
+    }
+
+    final int concurrency = end - start <= 1 << 20 ? 1 : WORKERS; // small tail (under 1mb), run in single-thread mode
+    try (Arena arena = Arena.ofShared()) {
+      final MemorySegment memory = channel.map(MapMode.READ_ONLY, start, end - start, arena);
+      final AtomicLong cursor = new AtomicLong();
+      final RegionWorker[] workers = new RegionWorker[concurrency];
+      for (int i = 0; i < concurrency; i++) {
+        workers[i] = new RegionWorker(memory, cursor, masks);
+        workers[i].start();
+      }
+      for (RegionWorker worker : workers) {
+        worker.join();
+        for (int i = 0; i < masks.length; i++) {
+          draws.get(i).winners += worker.winners[i];
+          worker.names[i].writeTo(draws.get(i).names);
+        }
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.out.println("Input: " + Arrays.toString(args));
+    final long drawMask = drawMask(args);
+
+    final State state = readState(STATE_FILE);
+    try (FileChannel channel = FileChannel.open(DATA_FILE, StandardOpenOption.READ)) {
+      final long fileSize = channel.size();
+      if (!isValidOffset(channel, state.offset, fileSize)) {
+        System.out.println("Pool truncated or rewritten, starting over");
+        state.offset = 0;
+        state.draws.clear();
+      }
+
+      final long end = lastLineEnd(channel, state.offset, fileSize);
+      System.out.println("Processed: " + state.offset + " - " + end + " of " + fileSize);
+
+      // known draws only follow the new bytes
+      scanRange(channel, state.offset, end, state.draws);
+
+      DrawResult draw = state.find(drawMask);
+      if (draw == null) { // draw seen first time, needs the whole pool once
+        draw = new DrawResult(drawMask);
+        scanRange(channel, 0, end, List.of(draw));
+        state.draws.add(draw);
+      }
+
+      state.offset = end;
+      writeState(STATE_FILE, state);
+
+      System.out.println("Winners: " + draw.winners);
+      System.out.print(draw.names.toString(UTF_8));
+    }
+  }
+
+}
@@ -0,0 +1,468 @@
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+
+/**
+ * Inverted index, one bitmap per number marking the tickets (line numbers) containing it.
+ *
+ * Bitmaps are split into blocks of 65536 tickets, Roaring style. Each block of a number is a container:
+ *  - array container  : sorted 16-bit ticket ids, when cardinality is up to 4096
+ *  - bitmap container : 1024 longs, otherwise
+ *
+ * Index file layout (little endian):
+ *  - header      : magic, ticket count, block count (8 bytes each) padded to 32 bytes
+ *  - directory   : container offset (8 bytes) and cardinality (4 bytes) for each number [0-49] and block
+ *  - lines       : 8 bytes per ticket, start offset of the line in pool.csv to print names
+ *  - containers  : data of non-empty containers
+ *
+ * Build once with -Dbuild=true, then query with the draw as usual.
+ * Query returns tickets having at least -DatLeast=k numbers of the draw (default 6), -Dcount=true prints the count only.
+ * Blocks with less than k non-empty containers are skipped without reading anything.
+ * Other blocks are evaluated right in the mapped containers. Sparse ones look up the tickets of their smallest containers
+ * in the others, dense ones combine the six bitmaps word by word. A 6/49 pool has every number in about 1 of 8 tickets,
+ * so all of its blocks are dense and a query reads the six bitmaps of the draw for the whole pool.
+ *
+ * Big thanks to Mike, for bringing this challenge.
+ *
+ * Follow me at: github.com/yavuztas
+ */
+public class MainIndex {
+
+  private static final Path DATA_FILE = Path.of("pool.csv");
+  private static final Path INDEX_FILE = Path.of("pool.idx");
+
+  private static final long MAGIC = 0x3158444e49544f4cL; // "LOTINDX1"
+  private static final int HEADER_SIZE = 32;
+  private static final int NUMBERS = 50; // can store [0-49]
+  private static final int BLOCK_BITS = 16;
+  private static final int BLOCK_SIZE = 1 << BLOCK_BITS; // tickets per container
+  private static final int BITMAP_WORDS = BLOCK_SIZE >>> 6; // 1024 longs
+  private static final int ARRAY_MAX_CARDINALITY = 4096; // above this bitmap is smaller
+
+  private static final int AT_LEAST = Integer.getInteger("atLeast", 6);
+  private static final boolean COUNT_ONLY = Boolean.getBoolean("count");
+
+  // numeric tail of a line is 18 bytes at most (6 x ";dd"), three words always cover it
+  private static final int TAIL_BYTES = 24;
+
+  private static final PrintStream OUT = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 17), false, UTF_8);
+
+  // same as MainBitmask.ticketMask, see there for details
+  static long ticketMask(MemorySegment segment, long lineEnd) {
+    long w0 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 8);
+    long w1 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 16);
+    long w2 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 24);
+    long mask = 0;
+    for (int i = 0; i < 6; i++) {
+      final long ones = (w0 >>> 56) & 0xF;
+      final long tens = (w0 >>> 48) & 0xFF;
+      final long twoDigits = (tens - ';') >>> 63; // 1 when it's a digit, 0 when it's ';' since digits are below ';' in ascii
+      mask |= 1L << (ones + (twoDigits * 10 * (tens & 0xF)));
+      final int shift = (int) (16 + (twoDigits << 3)); // 2 or 3 bytes
+      w0 = (w0 << shift) | (w1 >>> (64 - shift));
+      w1 = (w1 << shift) | (w2 >>> (64 - shift));
+      w2 <<= shift;
+    }
+    return mask;
+  }
+
+  static long ticketMaskSlow(MemorySegment segment, long lineEnd) {
+    long mask = 0;
+    long pos = lineEnd - 1;
+    for (int i = 0; i < 6; i++) {
+      int number = segment.get(ValueLayout.JAVA_BYTE, pos) - '0';
+      final byte b = segment.get(ValueLayout.JAVA_BYTE, pos - 1);
+      if (b != ';') {
+        pos--; // skip tens digit
+        number += (b - '0') * 10;
+      }
+      pos -= 2;
+      mask |= 1L << number;
+    }
+    return mask;
+  }
+
+  private static long countLines(MemorySegment segment, long size) {
+    long lines = 0;
+    long position = 0;
+    for (; position + 8 <= size; position += 8) {
+      final long hasVal = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, position) ^ 0xa0a0a0a0a0a0a0aL;
+      lines += Long.bitCount((hasVal - 0x0101010101010101L) & ~hasVal & 0x8080808080808080L);
+    }
+    for (; position < size; position++) {
+      if (segment.get(ValueLayout.JAVA_BYTE, position) == '\n') lines++;
+    }
+    if (size > 0 && segment.get(ValueLayout.JAVA_BYTE, size - 1) != '\n') lines++; // last line without linebreak
+    return lines;
+  }
+
+  private static long directoryOffset(int number, long block, long blocks) {
+    return HEADER_SIZE + (number * blocks + block) * 8;
+  }
+
+  private static long cardinalityOffset(int number, long block, long blocks) {
+    return HEADER_SIZE + NUMBERS * blocks * 8 + (number * blocks + block) * 4;
+  }
+
+  private static long linesOffset(long blocks) {
+    return HEADER_SIZE + NUMBERS * blocks * 12;
+  }
+
+  /**
+   * Single pass over the text, one block of tickets at a time.
+   * Bitmaps of the current block are built in memory for all numbers (50 x 8kb) and written as containers when the block is full.
+   */
+  static void build(Path source, Path target) throws Exception {
+    final long fileSize = Files.size(source);
+    try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+         FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+         Arena arena = Arena.ofConfined()) {
+
+      final MemorySegment text = in.map(MapMode.READ_ONLY, 0, fileSize, arena);
+      final long count = countLines(text, fileSize);
+      final long blocks = (count + BLOCK_SIZE - 1) >>> BLOCK_BITS;
+
+      final long[] containerOffsets = new long[(int) (NUMBERS * blocks)];
+      final int[] cardinalities = new int[(int) (NUMBERS * blocks)];
+      final long[][] bitmaps = new long[NUMBERS][BITMAP_WORDS];
+      final int[] blockCardinalities = new int[NUMBERS];
+      final ByteBuffer lines = ByteBuffer.allocateDirect(BLOCK_SIZE * 8).order(ByteOrder.LITTLE_ENDIAN);
+      final ByteBuffer container = ByteBuffer.allocateDirect(BITMAP_WORDS * 8).order(ByteOrder.LITTLE_ENDIAN);
+
+      long dataPos = linesOffset(blocks) + count * 8;
+      long lineStart = 0;
+      for (long block = 0; block < blocks; block++) {
+        final int size = (int) Math.min(BLOCK_SIZE, count - (block << BLOCK_BITS));
+        lines.clear();
+        for (int id = 0; id < size; id++) {
+          long lineEnd = lineStart;
+          while (lineEnd < fileSize && text.get(ValueLayout.JAVA_BYTE, lineEnd) != '\n') {
+            lineEnd++;
+          }
+          long mask = lineEnd >= TAIL_BYTES ? ticketMask(text, lineEnd) : ticketMaskSlow(text, lineEnd);
+          while (mask != 0) {
+            final int number = Long.numberOfTrailingZeros(mask);
+            bitmaps[number][id >>> 6] |= 1L << id;
+            blockCardinalities[number]++;
+            mask &= mask - 1;
+          }
+          lines.putLong(lineStart);
+          lineStart = lineEnd + 1;
+        }
+        lines.flip();
+        out.write(lines, linesOffset(blocks) + (block << BLOCK_BITS) * 8);
+
+        // flush containers of the block
+        for (int number = 0; number < NUMBERS; number++) {
+          final int cardinality = blockCardinalities[number];
+          final int dir = (int) (number * blocks + block);
+          cardinalities[dir] = cardinality;
+          if (cardinality == 0) continue;
+
+          container.clear();
+          final long[] bitmap = bitmaps[number];
+          if (cardinality <= ARRAY_MAX_CARDINALITY) {
+            for (int word = 0; word < BITMAP_WORDS; word++) {
+              long bits = bitmap[word];
+              while (bits != 0) {
+                container.putShort((short) ((word << 6) + Long.numberOfTrailingZeros(bits)));
+                bits &= bits - 1;
+              }
+            }
+          }
+          else {
+            for (int word = 0; word < BITMAP_WORDS; word++) {
+              container.putLong(bitmap[word]);
+            }
+          }
+          container.flip();
+          dataPos = (dataPos + 7) & ~7L; // keep bitmaps aligned
+          containerOffsets[dir] = dataPos;
+          dataPos += container.remaining();
+          out.write(container, containerOffsets[dir]);
+
+          Arrays.fill(bitmap, 0);
+          blockCardinalities[number] = 0;
+        }
+      }
+
+      // header and directory last, now that we know where containers are
+      final ByteBuffer header = ByteBuffer.allocate((int) linesOffset(blocks)).order(ByteOrder.LITTLE_ENDIAN);
+      header.putLong(MAGIC).putLong(count).putLong(blocks).putLong(0);
+      for (long offset : containerOffsets) header.putLong(offset);
+      for (int cardinality : cardinalities) header.putInt(cardinality);
+      header.flip();
+      out.write(header, 0);
+
+      System.out.println("Tickets: " + count);
+      System.out.println("Blocks: " + blocks);
+      System.out.println("Index size: " + dataPos);
+    }
+  }
+
+  static final class Index {
+
+    final MemorySegment segment;
+    final long count;
+    final long blocks;
+
+    Index(MemorySegment segment) {
+      if (segment.get(ValueLayout.JAVA_LONG_UNALIGNED, 0) != MAGIC) {
+        throw new IllegalStateException("Not an index file: " + INDEX_FILE);
+      }
+      this.segment = segment;
+      this.count = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, 8);
+      this.blocks = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, 16);
+    }
+
+    int cardinality(int number, long block) {
+      return this.segment.get(ValueLayout.JAVA_INT_UNALIGNED, cardinalityOffset(number, block, this.blocks));
+    }
+
+    long lineStart(long ticket) {
+      return this.segment.get(ValueLayout.JAVA_LONG_UNALIGNED, linesOffset(this.blocks) + ticket * 8);
+    }
+
+    long offset(int number, long block) {
+      return this.segment.get(ValueLayout.JAVA_LONG_UNALIGNED, directoryOffset(number, block, this.blocks));
+    }
+
+    int arrayId(long offset, int i) {
+      return Short.toUnsignedInt(this.segment.get(ValueLayout.JAVA_SHORT_UNALIGNED, offset + ((long) i << 1)));
+    }
+
+    long bitmapWord(long offset, int word) {
+      return this.segment.get(ValueLayout.JAVA_LONG_UNALIGNED, offset + ((long) word << 3));
+    }
+
+    // membership test right in the mapped container, a bit for bitmaps and a binary search for arrays
+    boolean contains(long offset, int cardinality, int id) {
+      if (cardinality > ARRAY_MAX_CARDINALITY) {
+        return (bitmapWord(offset, id >>> 6) & (1L << id)) != 0;
+      }
+      int low = 0;
+      int high = cardinality - 1;
+      while (low <= high) {
+        final int mid = (low + high) >>> 1;
+        final int value = arrayId(offset, mid);
+        if (value < id) low = mid + 1;
+        else if (value > id) high = mid - 1;
+        else return true;
+      }
+      return false;
+    }
+  }
+
+  // Containers of the draw in a block and the buffers to evaluate them, one per thread so blocks don't allocate
+  static final class Scratch {
+
+    final long[] offsets = new long[6];
+    final int[] cardinalities = new int[6];
+    final long[][] arrays = new long[6][]; // array containers spread into bitmaps, only for blocks evaluated word by word
+    final long[] misses = new long[6]; // bit planes, misses[j] has the tickets missing more than j numbers so far
+    int[] ids = new int[64];
+  }
+
+  private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+  private static final int[] NO_IDS = new int[0];
+
+  // Bit sliced adder over 6 bitmaps: count of set inputs per bit as 3 bit planes, then compare with k.
+  private static long atLeast(long a, long b, long c, long d, long e, long f, int k) {
+    final long s1 = a ^ b ^ c;
+    final long k1 = (a & b) | (c & (a ^ b));
+    final long s2 = d ^ e ^ f;
+    final long k2 = (d & e) | (f & (d ^ e));
+    final long bit0 = s1 ^ s2;
+    final long carry0 = s1 & s2;
+    final long bit1 = k1 ^ k2 ^ carry0;
+    final long bit2 = (k1 & k2) | (carry0 & (k1 ^ k2));
+    return switch (k) { // count is 6 at most
+      case 6 -> bit2 & bit1;
+      case 5 -> bit2 & (bit1 | bit0);
+      case 4 -> bit2;
+      case 3 -> bit2 | (bit1 & bit0);
+      case 2 -> bit2 | bit1;
+      default -> bit2 | bit1 | bit0;
+    };
+  }
+
+  // Evaluate one block, returns matching ticket ids relative to the block start, in order
+  static int[] query(Index index, int[] numbers, long block) {
+    final Scratch scratch = SCRATCH.get();
+    // containers by cardinality, smallest first: candidates of a sparse block come from the smallest ones,
+    // and a word of a mixed block gets to zero early
+    int nonEmpty = 0;
+    for (int i = 0; i < 6; i++) {
+      final int cardinality = index.cardinality(numbers[i], block);
+      final long offset = index.offset(numbers[i], block);
+      int j = i;
+      for (; j > 0 && scratch.cardinalities[j - 1] > cardinality; j--) {
+        scratch.cardinalities[j] = scratch.cardinalities[j - 1];
+        scratch.offsets[j] = scratch.offsets[j - 1];
+      }
+      scratch.cardinalities[j] = cardinality;
+      scratch.offsets[j] = offset;
+      if (cardinality > 0) nonEmpty++;
+    }
+    if (nonEmpty < AT_LEAST) { // cannot have any ticket with k numbers, skip without touching containers
+      return NO_IDS;
+    }
+    // a ticket with k numbers misses at most 6 - k containers, so it's in one of any 7 - k of them
+    final int candidates = 7 - AT_LEAST;
+    return scratch.cardinalities[candidates - 1] <= ARRAY_MAX_CARDINALITY
+      ? probe(index, scratch, candidates)
+      : intersect(index, scratch);
+  }
+
+  // sparse block: only the tickets of the smallest containers are looked up in the others
+  private static int[] probe(Index index, Scratch scratch, int candidates) {
+    final int allowed = 6 - AT_LEAST;
+    int size = 0;
+    for (int c = 0; c < candidates; c++) {
+      for (int i = 0; i < scratch.cardinalities[c]; i++) {
+        final int id = index.arrayId(scratch.offsets[c], i);
+        int missing = 0;
+        for (int j = 0; j < 6 && missing <= allowed; j++) {
+          if (j == c) continue;
+          if (index.contains(scratch.offsets[j], scratch.cardinalities[j], id)) {
+            if (j < c) missing = allowed + 1; // taken with an earlier candidate container already
+          }
+          else {
+            missing++;
+          }
+        }
+        if (missing > allowed) continue;
+        if (size == scratch.ids.length) scratch.ids = Arrays.copyOf(scratch.ids, size << 1);
+        scratch.ids[size++] = id;
+      }
+    }
+    final int[] ids = Arrays.copyOf(scratch.ids, size);
+    Arrays.sort(ids); // candidates of different containers interleave
+    return ids;
+  }
+
+  // dense block, six bitmaps are read word by word right in the mapped index
+  private static int[] intersect(Index index, Scratch scratch) {
+    if (scratch.cardinalities[0] <= ARRAY_MAX_CARDINALITY) { // smallest first, so all are bitmaps otherwise
+      return intersectMixed(index, scratch);
+    }
+    final MemorySegment segment = index.segment;
+    final long o0 = scratch.offsets[0], o1 = scratch.offsets[1], o2 = scratch.offsets[2];
+    final long o3 = scratch.offsets[3], o4 = scratch.offsets[4], o5 = scratch.offsets[5];
+    int size = 0;
+    for (int word = 0; word < BITMAP_WORDS; word++) {
+      final long at = (long) word << 3;
+      long bits = atLeast(segment.get(ValueLayout.JAVA_LONG_UNALIGNED, o0 + at), segment.get(ValueLayout.JAVA_LONG_UNALIGNED, o1 + at),
+        segment.get(ValueLayout.JAVA_LONG_UNALIGNED, o2 + at), segment.get(ValueLayout.JAVA_LONG_UNALIGNED, o3 + at),
+        segment.get(ValueLayout.JAVA_LONG_UNALIGNED, o4 + at), segment.get(ValueLayout.JAVA_LONG_UNALIGNED, o5 + at), AT_LEAST);
+      while (bits != 0) {
+        if (size == scratch.ids.length) scratch.ids = Arrays.copyOf(scratch.ids, size << 1);
+        scratch.ids[size++] = (word << 6) + Long.numberOfTrailingZeros(bits);
+        bits &= bits - 1;
+      }
+    }
+    return Arrays.copyOf(scratch.ids, size);
+  }
+
+  // dense block with some sparse or empty containers. Misses are counted in bit planes up to 6 - k,
+  // the next container is read only while a ticket of the word can still have k numbers
+  private static int[] intersectMixed(Index index, Scratch scratch) {
+    final int allowed = 6 - AT_LEAST;
+    final long[] misses = scratch.misses;
+    for (int i = 0; i < 6; i++) { // rare next to bitmaps, sparse containers are spread once
+      final int cardinality = scratch.cardinalities[i];
+      if (cardinality == 0 || cardinality > ARRAY_MAX_CARDINALITY) continue;
+      if (scratch.arrays[i] == null) scratch.arrays[i] = new long[BITMAP_WORDS];
+      final long[] words = scratch.arrays[i];
+      Arrays.fill(words, 0);
+      for (int k = 0; k < cardinality; k++) {
+        final int id = index.arrayId(scratch.offsets[i], k);
+        words[id >>> 6] |= 1L << id;
+      }
+    }
+
+    int size = 0;
+    for (int word = 0; word < BITMAP_WORDS; word++) {
+      Arrays.fill(misses, 0, allowed + 1, 0);
+      long bits = -1L;
+      for (int i = 0; i < 6 && bits != 0; i++) {
+        final int cardinality = scratch.cardinalities[i];
+        final long missed = cardinality == 0 ? -1L
+          : cardinality > ARRAY_MAX_CARDINALITY ? ~index.bitmapWord(scratch.offsets[i], word) : ~scratch.arrays[i][word];
+        for (int j = allowed; j > 0; j--) {
+          misses[j] |= misses[j - 1] & missed;
+        }
+        misses[0] |= missed;
+        bits = ~misses[allowed];
+      }
+      while (bits != 0) {
+        if (size == scratch.ids.length) scratch.ids = Arrays.copyOf(scratch.ids, size << 1);
+        scratch.ids[size++] = (word << 6) + Long.numberOfTrailingZeros(bits);
+        bits &= bits - 1;
+      }
+    }
+    return Arrays.copyOf(scratch.ids, size);
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (Boolean.getBoolean("build")) {
+      build(DATA_FILE, INDEX_FILE);
+      return;
+    }
+
+    System.out.println("Input: " + Arrays.toString(args));
+    final int[] numbers = Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+    if (numbers.length != 6 || Arrays.stream(numbers).distinct().count() != 6) { // a repeated number counts twice
+      throw new IllegalArgumentException("Expected 6 unique numbers: " + Arrays.toString(args));
+    }
+    if (Arrays.stream(numbers).anyMatch(n -> n < 1 || n > 49)) { // directory has [0-49] only
+      throw new IllegalArgumentException("Numbers must be unique in [1-49]: " + Arrays.toString(args));
+    }
+
+    final FileChannel indexChannel = FileChannel.open(INDEX_FILE, StandardOpenOption.READ);
+    final Index index = new Index(indexChannel.map(MapMode.READ_ONLY, 0, indexChannel.size(), Arena.global()));
+    final FileChannel dataChannel = FileChannel.open(DATA_FILE, StandardOpenOption.READ);
+    final MemorySegment data = dataChannel.map(MapMode.READ_ONLY, 0, dataChannel.size(), Arena.global());
+
+    System.out.println("Tickets: " + index.count);
+    System.out.println("Blocks: " + index.blocks);
+
+    // blocks are independent, evaluate them in parallel and print in block order
+    final int[][] results = IntStream.range(0, (int) index.blocks).parallel()
+      .mapToObj(block -> query(index, numbers, block))
+      .toArray(int[][]::new);
+
+    long winners = 0;
+    for (int block = 0; block < results.length; block++) {
+      winners += results[block].length;
+      if (COUNT_ONLY) continue;
+      for (int id : results[block]) {
+        final long start = index.lineStart(((long) block << BLOCK_BITS) + id);
+        long end = start;
+        while (data.get(ValueLayout.JAVA_BYTE, end) != ';') { // names cannot contain ';', first one ends the name
+          end++;
+        }
+        OUT.println(new String(data.asSlice(start, end - start).toArray(ValueLayout.JAVA_BYTE), UTF_8));
+      }
+    }
+    OUT.println("Winners: " + winners);
+    OUT.flush();
+  }
+
+}
@@ -0,0 +1,513 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Popularity report of the pool, how many times every combination is bought. No draw is needed.
+ *
+ * Every ticket is normalised to its bitmask, so the order of the numbers doesn't matter, and counted in an off-heap
+ * open addressing long -> int map of its worker. Slots are taken from the top bits of the hash, so the map is
+ * ordered by hash partition and the maps of all workers are merged partition by partition in parallel.
+ * When a map is 70% full it's spilled to disk as a run ordered by partition with an index, then cleared.
+ * A partition is merged from the maps and the runs together, only one partition per thread is in memory at a time.
+ *
+ * Prints the number of tickets and combinations, the top -Dtop=20 combinations as numbers;count and the
+ * distribution as times;combinations, e.g. 2;15 means 15 combinations are bought twice.
+ * -Dmemory=512m is the budget of the worker maps, -Dpartitions=256, -DspillDir=. for the spilled runs.
+ *
+ * Big thanks to Mike, for bringing this challenge.
+ *
+ * Follow me at: github.com/yavuztas
+ */
+public class MainPopularity {
+
+  private static final Path DATA_FILE = Path.of("pool.csv");
+
+  // workers claim line aligned chunks from a shared cursor, -Dworkers=16 -DchunkSize=4m to tune
+  private static final int WORKERS = Integer.getInteger("workers", Runtime.getRuntime().availableProcessors());
+  private static final long CHUNK_SIZE = parseSize(System.getProperty("chunkSize", "8m"));
+
+  private static final int TOP = Integer.getInteger("top", 20);
+  private static final long MEMORY = parseSize(System.getProperty("memory", "512m"));
+  // one bit at least, a shift by 64 - 0 would leave the hash as it is instead of partition 0
+  private static final int PARTITION_BITS = Math.max(1, Integer.numberOfTrailingZeros(Integer.highestOneBit(Integer.getInteger("partitions", 256))));
+  private static final int PARTITIONS = 1 << PARTITION_BITS;
+  private static final Path SPILL_DIR = Path.of(System.getProperty("spillDir", "."));
+
+  // numeric tail of a line is 18 bytes at most (6 x ";dd"), three words always cover it
+  private static final int TAIL_BYTES = 24;
+
+  private static final int ENTRY_BYTES = 12; // key and count, in a map and in a spilled run
+
+  // size with an optional k, m or g suffix
+  static long parseSize(String size) {
+    final char unit = Character.toLowerCase(size.charAt(size.length() - 1));
+    final int shift = unit == 'k' ? 10 : unit == 'm' ? 20 : unit == 'g' ? 30 : 0;
+    return Long.parseLong(shift == 0 ? size : size.substring(0, size.length() - 1)) << shift;
+  }
+
+  // first line start at or after the offset, so chunks always hold whole lines
+  private static long nextLineStart(MemorySegment segment, long offset, long fileSize) {
+    long position = Math.min(offset, fileSize);
+    while (position > 0 && position < fileSize && segment.get(ValueLayout.JAVA_BYTE, position - 1) != '\n') {
+      position++;
+    }
+    return position;
+  }
+
+  // hasvalue & haszero
+  // adapted from https://graphics.stanford.edu/~seander/bithacks.html#ZeroInWord
+  // returns [0-7] otherwise 8 when no match
+  private static int linebreakPos(long word) {
+    // // hasvalue
+    final long hasVal = word ^ 0xa0a0a0a0a0a0a0aL; // semicolon pattern
+    return Long.numberOfTrailingZeros(((hasVal - 0x0101010101010101L) & ~hasVal & 0x8080808080808080L)) >>> 3; // haszero
+  }
+
+  // same as MainBitmask.ticketMask, see there for details
+  static long ticketMask(MemorySegment segment, long lineEnd) {
+    long w0 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 8);
+    long w1 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 16);
+    long w2 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 24);
+    long mask = 0;
+    for (int i = 0; i < 6; i++) {
+      final long ones = (w0 >>> 56) & 0xF;
+      final long tens = (w0 >>> 48) & 0xFF;
+      final long twoDigits = (tens - ';') >>> 63; // 1 when it's a digit, 0 when it's ';' since digits are below ';' in ascii
+      mask |= 1L << (ones + (twoDigits * 10 * (tens & 0xF)));
+      final int shift = (int) (16 + (twoDigits << 3)); // 2 or 3 bytes
+      w0 = (w0 << shift) | (w1 >>> (64 - shift));
+      w1 = (w1 << shift) | (w2 >>> (64 - shift));
+      w2 <<= shift;
+    }
+    return mask;
+  }
+
+  static long ticketMaskSlow(MemorySegment segment, long lineEnd) {
+    long mask = 0;
+    long pos = lineEnd - 1;
+    for (int i = 0; i < 6; i++) {
+      int number = segment.get(ValueLayout.JAVA_BYTE, pos) - '0';
+      final byte b = segment.get(ValueLayout.JAVA_BYTE, pos - 1);
+      if (b != ';') {
+        pos--; // skip tens digit
+        number += (b - '0') * 10;
+      }
+      pos -= 2;
+      mask |= 1L << number;
+    }
+    return mask;
+  }
+
+  // fibonacci hashing, the top bits are mixed the best and they pick the slot and the partition
+  private static long hash(long key) {
+    return key * 0x9E3779B97F4A7C15L;
+  }
+
+  private static int partition(long key) {
+    return (int) (hash(key) >>> (64 - PARTITION_BITS));
+  }
+
+  interface EntryConsumer {
+    void accept(long key, int count) throws IOException;
+  }
+
+  // Open addressing long -> int map in two off-heap arrays, key 0 is an empty slot since a ticket has numbers.
+  // Slot of a key is the top bits of its hash, so the slots of a partition are a range of the arrays.
+  // A merge map holds a single partition and gets its entries in hash order, slots from the same top bits would
+  // fill it front to back in one cluster that probing runs through. Its slots come from the reversed hash instead.
+  static final class CountMap {
+
+    final int bits;
+    final boolean merge;
+    final long capacity;
+    final long limit; // load factor 0.7, spill or grow then
+    final MemorySegment keys;
+    final MemorySegment counts;
+    long size;
+
+    CountMap(int bits, boolean merge) {
+      this.bits = bits;
+      this.merge = merge;
+      this.capacity = 1L << bits;
+      this.limit = this.capacity * 7 / 10;
+      this.keys = Arena.ofAuto().allocate(this.capacity * 8, 8); // zeroed, all empty
+      this.counts = Arena.ofAuto().allocate(this.capacity * 4, 4);
+    }
+
+    boolean isFull() {
+      return this.size >= this.limit;
+    }
+
+    void add(long key, int count) {
+      final long hash = hash(key);
+      long slot = (this.merge ? Long.reverse(hash) * 0x9E3779B97F4A7C15L : hash) >>> (64 - this.bits);
+      while (true) {
+        final long current = this.keys.getAtIndex(ValueLayout.JAVA_LONG, slot);
+        if (current == key) {
+          this.counts.setAtIndex(ValueLayout.JAVA_INT, slot, this.counts.getAtIndex(ValueLayout.JAVA_INT, slot) + count);
+          return;
+        }
+        if (current == 0) {
+          this.keys.setAtIndex(ValueLayout.JAVA_LONG, slot, key);
+          this.counts.setAtIndex(ValueLayout.JAVA_INT, slot, count);
+          this.size++;
+          return;
+        }
+        slot = (slot + 1) & (this.capacity - 1); // linear probing
+      }
+    }
+
+    void forEach(EntryConsumer consumer) throws IOException {
+      for (long slot = 0; slot < this.capacity; slot++) {
+        final long key = this.keys.getAtIndex(ValueLayout.JAVA_LONG, slot);
+        if (key != 0) {
+          consumer.accept(key, this.counts.getAtIndex(ValueLayout.JAVA_INT, slot));
+        }
+      }
+    }
+
+    // Entries of a partition in a worker map, they start in its slot range and may run over its end while slots are taken,
+    // linear probing only moves keys forward. Keys moved in from the previous partition are skipped.
+    void forEach(int partition, EntryConsumer consumer) throws IOException {
+      final int shift = this.bits - PARTITION_BITS;
+      final long from = (long) partition << shift;
+      final long to = (long) (partition + 1) << shift;
+      for (long i = from; ; i++) {
+        final long slot = i & (this.capacity - 1); // the last partition may wrap around to the first slots
+        final long key = this.keys.getAtIndex(ValueLayout.JAVA_LONG, slot);
+        if (key == 0) {
+          if (i >= to) return;
+          continue;
+        }
+        if (partition(key) == partition) {
+          consumer.accept(key, this.counts.getAtIndex(ValueLayout.JAVA_INT, slot));
+        }
+        if (i - from > this.capacity) return; // a full table, can't happen below the limit
+      }
+    }
+
+    void clear() {
+      this.keys.fill((byte) 0);
+      this.size = 0;
+    }
+
+    // twice the capacity, used by the merge where a partition can't be sized up front
+    CountMap grow() throws IOException {
+      final CountMap grown = new CountMap(this.bits + 1, this.merge);
+      forEach(grown::add);
+      return grown;
+    }
+  }
+
+  // a spilled map on disk, entries in partition order, offsets[p] is where partition p starts
+  record SpillRun(Path file, long[] offsets) {
+
+    // DataOutputStream writes big endian
+    static final ValueLayout.OfLong KEY = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    static final ValueLayout.OfInt COUNT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+    static SpillRun write(CountMap map, Path file) throws IOException {
+      final long[] offsets = new long[PARTITIONS + 1];
+      final long[] entries = { 0 };
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 20))) {
+        for (int p = 0; p < PARTITIONS; p++) {
+          offsets[p] = entries[0] * ENTRY_BYTES;
+          map.forEach(p, (key, count) -> {
+            out.writeLong(key);
+            out.writeInt(count);
+            entries[0]++;
+          });
+        }
+      }
+      offsets[PARTITIONS] = entries[0] * ENTRY_BYTES;
+      return new SpillRun(file, offsets);
+    }
+
+    void forEach(MemorySegment mapped, int partition, EntryConsumer consumer) throws IOException {
+      for (long position = this.offsets[partition]; position < this.offsets[partition + 1]; position += ENTRY_BYTES) {
+        consumer.accept(mapped.get(KEY, position), mapped.get(COUNT, position + 8));
+      }
+    }
+  }
+
+  static class RegionWorker extends Thread {
+
+    final int id;
+    final MemorySegment segment;
+    final long fileSize;
+    final AtomicLong cursor; // start of the next chunk to claim, shared by all workers
+    final long chunkSize;
+
+    final CountMap map;
+    final List<SpillRun> runs = new ArrayList<>();
+    long tickets;
+    UncheckedIOException failure; // spill failed, e.g. -DspillDir is full, main fails with it after the joins
+
+    RegionWorker(int id, MemorySegment memory, long fileSize, AtomicLong cursor, long chunkSize, int mapBits) {
+      this.id = id;
+      this.segment = memory;
+      this.fileSize = fileSize;
+      this.cursor = cursor;
+      this.chunkSize = chunkSize;
+      this.map = new CountMap(mapBits, false);
+    }
+
+    private void count(long lineBreakPos) {
+      final long ticket = lineBreakPos >= TAIL_BYTES ? ticketMask(this.segment, lineBreakPos) : ticketMaskSlow(this.segment, lineBreakPos);
+      if (this.map.isFull()) {
+        spill();
+      }
+      this.map.add(ticket, 1);
+      this.tickets++;
+    }
+
+    private void spill() {
+      final Path file = SPILL_DIR.resolve("pool.spill-" + this.id + "-" + this.runs.size());
+      try {
+        this.runs.add(SpillRun.write(this.map, file));
+        this.map.clear();
+      }
+      catch (IOException e) {
+        try {
+          Files.deleteIfExists(file); // partly written
+        }
+        catch (IOException suppressed) {
+          e.addSuppressed(suppressed);
+        }
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        long chunkStart;
+        while ((chunkStart = this.cursor.getAndAdd(this.chunkSize)) < this.fileSize) { // claim the next chunk
+          final long start = nextLineStart(this.segment, chunkStart, this.fileSize);
+          final long end = nextLineStart(this.segment, chunkStart + this.chunkSize, this.fileSize);
+          scan(start, end);
+        }
+      }
+      catch (UncheckedIOException e) {
+        this.failure = e;
+      }
+    }
+
+    // scan a line aligned chunk, same loop as in MainBitmask
+    void scan(long start, long end) {
+      long word;
+      // the last line of the file may have no linebreak, then the chunk end is its line end
+      long relativePos = start < end && this.segment.get(ValueLayout.JAVA_BYTE, end - 1) != '\n' ? 0 : 8;
+      long lineBreakPos = end;
+      long position = end; // scan the segment reverse
+      final long loopCount = (end - start) / 8; // 8 bytes at a time
+      for (int i = 0; i < loopCount; i++) {
+        if (relativePos != 8) {
+          count(lineBreakPos);
+        }
+
+        word = this.segment.get(ValueLayout.JAVA_LONG_UNALIGNED, position - 8); // read a word of 8 bytes each time
+        relativePos = linebreakPos(word); // linebreak position in the word, if not returns 8
+        lineBreakPos = position - 8 + relativePos;
+
+        position -= 8; // move pointer 8 bytes to the back
+      }
+      if (relativePos != 8) { // the last linebreak found
+        count(lineBreakPos);
+      }
+      // less than a word left at the chunk start, there can be one linebreak at most
+      while (--position >= start) {
+        if (this.segment.get(ValueLayout.JAVA_BYTE, position) == '\n') {
+          count(position);
+        }
+      }
+    }
+  }
+
+  // merged counts of one partition
+  static final class PartitionResult {
+
+    long combinations;
+    final PriorityQueue<long[]> top = new PriorityQueue<>(PartitionResult::compare); // count and key, least popular first
+    final TreeMap<Integer, Long> distribution = new TreeMap<>(); // times bought -> combinations
+
+    // fewer tickets first, the bigger mask first on a tie so that the smallest numbers stay in the top
+    static int compare(long[] a, long[] b) {
+      return a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(b[1], a[1]);
+    }
+
+    void add(long key, long count) {
+      this.combinations++;
+      this.distribution.merge((int) count, 1L, Long::sum);
+      offer(key, count);
+    }
+
+    void offer(long key, long count) {
+      if (TOP == 0) return;
+      final long[] entry = { count, key };
+      if (this.top.size() < TOP) {
+        this.top.add(entry);
+      }
+      else if (compare(entry, this.top.peek()) > 0) {
+        this.top.poll();
+        this.top.add(entry);
+      }
+    }
+
+    void addAll(PartitionResult other) {
+      this.combinations += other.combinations;
+      other.distribution.forEach((times, combinations) -> this.distribution.merge(times, combinations, Long::sum));
+      for (long[] entry : other.top) {
+        offer(entry[1], entry[0]);
+      }
+    }
+  }
+
+  private static PartitionResult merge(int partition, RegionWorker[] workers, List<MemorySegment[]> spilled) throws IOException {
+    final CountMap[] merged = { new CountMap(10, true) };
+    final EntryConsumer add = (key, count) -> {
+      if (merged[0].isFull()) {
+        merged[0] = merged[0].grow();
+      }
+      merged[0].add(key, count);
+    };
+    for (int w = 0; w < workers.length; w++) {
+      workers[w].map.forEach(partition, add);
+      for (int r = 0; r < workers[w].runs.size(); r++) {
+        workers[w].runs.get(r).forEach(spilled.get(w)[r], partition, add);
+      }
+    }
+    final PartitionResult result = new PartitionResult();
+    merged[0].forEach(result::add);
+    return result;
+  }
+
+  private static String numbers(long mask) {
+    final StringBuilder numbers = new StringBuilder();
+    for (long bits = mask; bits != 0; bits &= bits - 1) {
+      if (!numbers.isEmpty()) numbers.append(';');
+      numbers.append(Long.numberOfTrailingZeros(bits));
+    }
+    return numbers.toString();
+  }
+
+  private static void deleteSpills(RegionWorker[] workers) throws IOException {
+    for (RegionWorker worker : workers) {
+      for (SpillRun run : worker.runs) {
+        Files.deleteIfExists(run.file());
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    var concurrency = WORKERS;
+    final long fileSize = Files.size(DATA_FILE);
+    long chunkSize = CHUNK_SIZE;
+
+    if (fileSize <= 1 << 20) { // small file (under 1mb), run in single-thread mode
+      concurrency = 1;
+      chunkSize = Math.max(fileSize, 1);
+    }
+    // largest power of two slots of all worker maps within the budget, a partition gets a few slots at least
+    final int mapBits = Math.max(PARTITION_BITS + 4, 63 - Long.numberOfLeadingZeros(MEMORY / concurrency / ENTRY_BYTES));
+
+    System.out.println("Concurrency: " + concurrency);
+    System.out.println("File size: " + fileSize);
+    System.out.println("Chunk size: " + chunkSize);
+    System.out.println("Map slots: " + (1L << mapBits) + " x " + concurrency);
+
+    final FileChannel channel = (FileChannel) Files.newByteChannel(DATA_FILE, StandardOpenOption.READ);
+    final MemorySegment memory = fileSize == 0 ? MemorySegment.NULL : channel.map(MapMode.READ_ONLY, 0, fileSize, Arena.global());
+
+    final AtomicLong cursor = new AtomicLong();
+    final RegionWorker[] workers = new RegionWorker[concurrency];
+    for (int i = 0; i < concurrency; i++) {
+      workers[i] = new RegionWorker(i, memory, fileSize, cursor, chunkSize, mapBits);
+      workers[i].start();
+    }
+    long tickets = 0;
+    int spills = 0;
+    for (RegionWorker worker : workers) {
+      worker.join();
+      tickets += worker.tickets;
+      spills += worker.runs.size();
+    }
+    // counts of the failed worker are lost, a report without them would be short
+    for (RegionWorker worker : workers) {
+      if (worker.failure != null) {
+        deleteSpills(workers);
+        throw new IOException("Spilling the counts failed", worker.failure.getCause());
+      }
+    }
+
+    // partitions are merged in parallel, spilled runs are mapped once for all of them
+    final ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+    final PartitionResult total = new PartitionResult();
+    try (Arena arena = Arena.ofShared()) {
+      final List<MemorySegment[]> spilled = new ArrayList<>();
+      for (RegionWorker worker : workers) {
+        final MemorySegment[] runs = new MemorySegment[worker.runs.size()];
+        for (int r = 0; r < runs.length; r++) {
+          try (FileChannel run = FileChannel.open(worker.runs.get(r).file(), StandardOpenOption.READ)) {
+            runs[r] = run.map(MapMode.READ_ONLY, 0, run.size(), arena);
+          }
+        }
+        spilled.add(runs);
+      }
+      final List<Future<PartitionResult>> results = new ArrayList<>(PARTITIONS);
+      for (int p = 0; p < PARTITIONS; p++) {
+        final int partition = p;
+        results.add(executor.submit(() -> merge(partition, workers, spilled)));
+      }
+      for (Future<PartitionResult> result : results) {
+        total.addAll(result.get());
+      }
+    }
+    finally {
+      executor.shutdown();
+      deleteSpills(workers);
+    }
+
+    final List<long[]> top = new ArrayList<>(total.top);
+    top.sort((a, b) -> PartitionResult.compare(b, a)); // most popular first
+
+    final StringBuilder out = new StringBuilder();
+    out.append("Spills: ").append(spills).append('\n');
+    out.append("Tickets: ").append(tickets).append('\n');
+    out.append("Combinations: ").append(total.combinations).append('\n');
+    out.append("Top ").append(top.size()).append(":\n");
+    for (long[] entry : top) {
+      out.append(numbers(entry[1])).append(';').append(entry[0]).append('\n');
+    }
+    out.append("Distribution:\n");
+    for (Map.Entry<Integer, Long> entry : total.distribution.entrySet()) {
+      out.append(entry.getKey()).append(';').append(entry.getValue()).append('\n');
+    }
+    final OutputStream stdout = System.out;
+    stdout.write(out.toString().getBytes());
+    stdout.flush();
+  }
+
+}
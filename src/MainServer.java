@@ -0,0 +1,320 @@
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Long running version of the bitmask solution, pool.csv is mapped once and workers stay resident,
+ * so every draw after the first one runs on compiled code without JVM startup and mapping.
+ *
+ * Draws are read line by line, numbers separated by anything but digits:
+ *  - from stdin by default
+ *  - from a unix domain socket with -Dsocket=/tmp/lottery.sock, every connection can send many draws
+ *
+ * Response per draw is "Winners: <count>" followed by the names, one per line.
+ * Run with -Dmatch=5 for tickets matching exactly 5 numbers, -Dwarmup=3 to scan the pool a few times on startup.
+ *
+ * Big thanks to Mike, for bringing this challenge.
+ *
+ * Follow me at: github.com/yavuztas
+ */
+public class MainServer {
+
+  private static final Path DATA_FILE = Path.of("pool.csv");
+
+  // workers claim line aligned chunks from a shared cursor, -Dworkers=16 -DchunkSize=4m to tune
+  private static final int WORKERS = Integer.getInteger("workers", Runtime.getRuntime().availableProcessors());
+  private static final long CHUNK_SIZE = parseSize(System.getProperty("chunkSize", "8m"));
+
+  private static final int MATCH_NUMBERS = Integer.getInteger("match", 6); // how many numbers to match for a winner
+  private static final boolean EXACT_MATCH = MATCH_NUMBERS == 6;
+  private static final int WARMUP_SCANS = Integer.getInteger("warmup", 0);
+
+  // numeric tail of a line is 18 bytes at most (6 x ";dd"), three words always cover it
+  private static final int TAIL_BYTES = 24;
+
+  // size with an optional k, m or g suffix
+  static long parseSize(String size) {
+    final char unit = Character.toLowerCase(size.charAt(size.length() - 1));
+    final int shift = unit == 'k' ? 10 : unit == 'm' ? 20 : unit == 'g' ? 30 : 0;
+    return Long.parseLong(shift == 0 ? size : size.substring(0, size.length() - 1)) << shift;
+  }
+
+  private static long findPreviousLinebreak(MemorySegment segment, long offset) {
+    long position = offset;
+    while (segment.get(ValueLayout.JAVA_BYTE, position) != '\n') { // read until a linebreak
+      position--;
+      if (position == 0) // no newline found
+        return -1;
+    }
+    return position;
+  }
+
+  private static long findNextSemicolon(MemorySegment segment, long offset) {
+    long position = offset;
+    while (segment.get(ValueLayout.JAVA_BYTE, position) != ';') { // names cannot contain ';', first one ends the name
+      position++;
+    }
+    return position;
+  }
+
+  // first line start at or after the offset, so chunks always hold whole lines
+  private static long nextLineStart(MemorySegment segment, long offset, long fileSize) {
+    long position = Math.min(offset, fileSize);
+    while (position > 0 && position < fileSize && segment.get(ValueLayout.JAVA_BYTE, position - 1) != '\n') {
+      position++;
+    }
+    return position;
+  }
+
+  // hasvalue & haszero
+  // adapted from https://graphics.stanford.edu/~seander/bithacks.html#ZeroInWord
+  // returns [0-7] otherwise 8 when no match
+  private static int linebreakPos(long word) {
+    // // hasvalue
+    final long hasVal = word ^ 0xa0a0a0a0a0a0a0aL; // semicolon pattern
+    return Long.numberOfTrailingZeros(((hasVal - 0x0101010101010101L) & ~hasVal & 0x8080808080808080L)) >>> 3; // haszero
+  }
+
+  // same as MainBitmask.ticketMask, see there for details
+  static long ticketMask(MemorySegment segment, long lineEnd) {
+    long w0 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 8);
+    long w1 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 16);
+    long w2 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 24);
+    long mask = 0;
+    for (int i = 0; i < 6; i++) {
+      final long ones = (w0 >>> 56) & 0xF;
+      final long tens = (w0 >>> 48) & 0xFF;
+      final long twoDigits = (tens - ';') >>> 63; // 1 when it's a digit, 0 when it's ';' since digits are below ';' in ascii
+      mask |= 1L << (ones + (twoDigits * 10 * (tens & 0xF)));
+      final int shift = (int) (16 + (twoDigits << 3)); // 2 or 3 bytes
+      w0 = (w0 << shift) | (w1 >>> (64 - shift));
+      w1 = (w1 << shift) | (w2 >>> (64 - shift));
+      w2 <<= shift;
+    }
+    return mask;
+  }
+
+  static long ticketMaskSlow(MemorySegment segment, long lineEnd) {
+    long mask = 0;
+    long pos = lineEnd - 1;
+    for (int i = 0; i < 6; i++) {
+      int number = segment.get(ValueLayout.JAVA_BYTE, pos) - '0';
+      final byte b = segment.get(ValueLayout.JAVA_BYTE, pos - 1);
+      if (b != ';') {
+        pos--; // skip tens digit
+        number += (b - '0') * 10;
+      }
+      pos -= 2;
+      mask |= 1L << number;
+    }
+    return mask;
+  }
+
+  static long drawMask(String line) {
+    final String[] numbers = line.strip().split("[^0-9]+");
+    if (numbers.length != 6 || numbers[0].isEmpty()) {
+      throw new IllegalArgumentException("Expected 6 numbers: " + line);
+    }
+    long mask = 0;
+    for (String number : numbers) {
+      final int n = Integer.parseInt(number);
+      if (n < 1 || n > 49) { // shift would wrap from 64 on, 50-63 never match
+        throw new IllegalArgumentException("Numbers must be in [1-49]: " + line);
+      }
+      mask |= 1L << n;
+    }
+    if (Long.bitCount(mask) != 6) { // a repeated number sets the same bit
+      throw new IllegalArgumentException("Numbers must be unique: " + line);
+    }
+    return mask;
+  }
+
+  // One scan task of a query, claims chunks until the file is done. Tasks run on the resident pool.
+  static class RegionWorker implements Callable<RegionWorker> {
+
+    final MemorySegment segment;
+    final long fileSize;
+    final AtomicLong cursor; // start of the next chunk to claim, shared by all tasks of the query
+
+    final long drawMask;
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    long winners;
+
+    public RegionWorker(MemorySegment memory, long fileSize, AtomicLong cursor, long drawMask) {
+      this.segment = memory;
+      this.fileSize = fileSize;
+      this.cursor = cursor;
+      this.drawMask = drawMask;
+    }
+
+    private void check(long lineBreakPos) {
+      final long ticket = lineBreakPos >= TAIL_BYTES ? ticketMask(this.segment, lineBreakPos) : ticketMaskSlow(this.segment, lineBreakPos);
+      if (EXACT_MATCH ? ticket == this.drawMask : Long.bitCount(ticket & this.drawMask) == MATCH_NUMBERS) { // found a match
+        final long start = findPreviousLinebreak(this.segment, lineBreakPos - 1) + 1;
+        final long end = findNextSemicolon(this.segment, start);
+        this.output.write(this.segment.asSlice(start, end - start).toArray(ValueLayout.JAVA_BYTE), 0, (int) (end - start));
+        this.output.write('\n');
+        this.winners++;
+      }
+    }
+
+    @Override
+    public RegionWorker call() {
+      long chunkStart;
+      while ((chunkStart = this.cursor.getAndAdd(CHUNK_SIZE)) < this.fileSize) { // claim the next chunk
+        final long start = nextLineStart(this.segment, chunkStart, this.fileSize);
+        final long end = nextLineStart(this.segment, chunkStart + CHUNK_SIZE, this.fileSize);
+        scan(start, end);
+      }
+      return this;
+    }
+
+    // scan a line aligned chunk, same loop as in MainBitmask
+    void scan(long start, long end) {
+      long word;
+      // the last line of the file may have no linebreak, then the chunk end is its line end
+      long relativePos = start < end && this.segment.get(ValueLayout.JAVA_BYTE, end - 1) != '\n' ? 0 : 8;
+      long lineBreakPos = end;
+      long position = end; // scan the segment reverse
+      final long loopCount = (end - start) / 8; // 8 bytes at a time
+      for (int i = 0; i < loopCount; i++) {
+        if (relativePos != 8) {
+          check(lineBreakPos);
+        }
+
+        word = this.segment.get(ValueLayout.JAVA_LONG_UNALIGNED, position - 8); // read a word of 8 bytes each time
+        relativePos = linebreakPos(word); // linebreak position in the word, if not returns 8
+        lineBreakPos = position - 8 + relativePos;
+
+        position -= 8; // move pointer 8 bytes to the back
+      }
+      if (relativePos != 8) { // the last linebreak found
+        check(lineBreakPos);
+      }
+      // less than a word left at the chunk start, there can be one linebreak at most
+      while (--position >= start) {
+        if (this.segment.get(ValueLayout.JAVA_BYTE, position) == '\n') {
+          check(position);
+        }
+      }
+    }
+  }
+
+  static final class Server {
+
+    final MemorySegment memory;
+    final long fileSize;
+    final ExecutorService workers = Executors.newFixedThreadPool(WORKERS, runnable -> {
+      final Thread thread = new Thread(runnable);
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    Server(MemorySegment memory, long fileSize) {
+      this.memory = memory;
+      this.fileSize = fileSize;
+    }
+
+    // a full scan for one draw, every resident worker takes part
+    void query(long drawMask, OutputStream out) throws Exception {
+      final AtomicLong cursor = new AtomicLong();
+      final List<RegionWorker> tasks = new ArrayList<>(WORKERS);
+      for (int i = 0; i < WORKERS; i++) {
+        tasks.add(new RegionWorker(this.memory, this.fileSize, cursor, drawMask));
+      }
+      long winners = 0;
+      for (Future<RegionWorker> result : this.workers.invokeAll(tasks)) {
+        winners += result.get().winners; // rethrows when a task failed
+      }
+      out.write(("Winners: " + winners + "\n").getBytes(UTF_8));
+      for (RegionWorker task : tasks) {
+        task.output.writeTo(out);
+      }
+      out.flush();
+    }
+
+    // serve draws line by line until the input is closed
+    void serve(BufferedReader in, OutputStream out) throws IOException {
+      String line;
+      while ((line = in.readLine()) != null) {
+        if (line.isBlank()) continue;
+        try {
+          query(drawMask(line), out);
+        }
+        catch (IllegalArgumentException e) {
+          out.write(("Error: " + e.getMessage() + "\n").getBytes(UTF_8));
+          out.flush();
+        }
+        catch (Exception e) {
+          throw new IOException(e);
+        }
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    final long fileSize = Files.size(DATA_FILE);
+    final FileChannel channel = (FileChannel) Files.newByteChannel(DATA_FILE, StandardOpenOption.READ);
+    final MemorySegment memory = channel.map(MapMode.READ_ONLY, 0, fileSize, Arena.global());
+    final Server server = new Server(memory, fileSize);
+
+    System.err.println("Concurrency: " + WORKERS);
+    System.err.println("File size: " + fileSize);
+    System.err.println("Chunk size: " + CHUNK_SIZE);
+
+    for (int i = 0; i < WARMUP_SCANS; i++) { // draw with a zero mask never matches, only warms up the scan loop
+      server.query(0, OutputStream.nullOutputStream());
+    }
+
+    final String socket = System.getProperty("socket");
+    if (socket == null) {
+      server.serve(new BufferedReader(new InputStreamReader(System.in, UTF_8)), System.out);
+      return;
+    }
+
+    final Path socketPath = Path.of(socket);
+    Files.deleteIfExists(socketPath);
+    try (ServerSocketChannel serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+      serverChannel.bind(UnixDomainSocketAddress.of(socketPath));
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> socketPath.toFile().delete()));
+      System.err.println("Listening on " + socketPath);
+      while (true) {
+        final SocketChannel client = serverChannel.accept();
+        Thread.ofVirtual().start(() -> { // connections are cheap, scans share the resident workers
+          try (client) {
+            server.serve(new BufferedReader(new InputStreamReader(Channels.newInputStream(client), UTF_8)), Channels.newOutputStream(client));
+          }
+          catch (IOException e) {
+            System.err.println("Connection failed: " + e.getMessage());
+          }
+        });
+      }
+    }
+  }
+
+}
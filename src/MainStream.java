@@ -0,0 +1,296 @@
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+
+/**
+ * Streaming version of the bitmask solution, for pools arriving over a pipe: cat pool.csv | java MainStream 1 2 3 4 5 6
+ *
+ * Nothing is mapped, so the input doesn't need to be seekable. A reader thread fills a ring of large off-heap buffers
+ * and scanner threads take the filled ones, scan them forward and give them back to the reader.
+ * A buffer is handed over only up to its last linebreak, the partial line after it is copied to the front of the next
+ * buffer. Every buffer keeps 24 bytes of padding in front, so the tail of the first line can be read in three words
+ * without a bounds check.
+ *
+ * Run with -Dinput=path to read a file or a named pipe instead of stdin.
+ * -DbufferSize=8m and -Dbuffers=10 size the ring, -Dworkers=8 the scanner threads, -Dmatch=5 as in MainBitmask.
+ *
+ * Big thanks to Mike, for bringing this challenge.
+ *
+ * Follow me at: github.com/yavuztas
+ */
+public class MainStream {
+
+  private static final String INPUT = System.getProperty("input", "-"); // "-" is stdin
+
+  private static final int WORKERS = Integer.getInteger("workers", Runtime.getRuntime().availableProcessors());
+  private static final int BUFFER_SIZE = (int) parseSize(System.getProperty("bufferSize", "8m"));
+  private static final int BUFFERS = Integer.getInteger("buffers", WORKERS + 2); // scanners busy and the reader a buffer ahead
+
+  private static final int MATCH_NUMBERS = Integer.getInteger("match", 6); // how many numbers to match for a winner
+  private static final boolean EXACT_MATCH = MATCH_NUMBERS == 6;
+
+  // numeric tail of a line is 18 bytes at most (6 x ";dd"), three words always cover it
+  private static final int TAIL_BYTES = 24;
+  private static final int PADDING = TAIL_BYTES; // in front of every buffer
+
+  // size with an optional k, m or g suffix
+  static long parseSize(String size) {
+    final char unit = Character.toLowerCase(size.charAt(size.length() - 1));
+    final int shift = unit == 'k' ? 10 : unit == 'm' ? 20 : unit == 'g' ? 30 : 0;
+    return Long.parseLong(shift == 0 ? size : size.substring(0, size.length() - 1)) << shift;
+  }
+
+  private static long findNextSemicolon(MemorySegment segment, long offset) {
+    long position = offset;
+    while (segment.get(ValueLayout.JAVA_BYTE, position) != ';') { // names cannot contain ';', first one ends the name
+      position++;
+    }
+    return position;
+  }
+
+  // same as MainBitmask.ticketMask, see there for details
+  static long ticketMask(MemorySegment segment, long lineEnd) {
+    long w0 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 8);
+    long w1 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 16);
+    long w2 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 24);
+    long mask = 0;
+    for (int i = 0; i < 6; i++) {
+      final long ones = (w0 >>> 56) & 0xF;
+      final long tens = (w0 >>> 48) & 0xFF;
+      final long twoDigits = (tens - ';') >>> 63; // 1 when it's a digit, 0 when it's ';' since digits are below ';' in ascii
+      mask |= 1L << (ones + (twoDigits * 10 * (tens & 0xF)));
+      final int shift = (int) (16 + (twoDigits << 3)); // 2 or 3 bytes
+      w0 = (w0 << shift) | (w1 >>> (64 - shift));
+      w1 = (w1 << shift) | (w2 >>> (64 - shift));
+      w2 <<= shift;
+    }
+    return mask;
+  }
+
+  static long drawMask(String[] input) {
+    long mask = 0;
+    for (String number : input) {
+      final int n = Integer.parseInt(number);
+      if (n < 1 || n > 49) {
+        throw new IllegalArgumentException("Numbers must be unique in [1-49]: " + Arrays.toString(input));
+      }
+      mask |= 1L << n;
+    }
+    if (input.length != 6 || Long.bitCount(mask) != 6) { // a repeated number sets the same bit
+      throw new IllegalArgumentException("Expected 6 unique numbers: " + Arrays.toString(input));
+    }
+    return mask;
+  }
+
+  // a buffer of the ring, lines in [start, end) are complete and the last one ends with a linebreak
+  static final class Block {
+
+    final MemorySegment segment;
+    final ByteBuffer buffer;
+    long start;
+    long end;
+
+    Block(MemorySegment segment) {
+      this.segment = segment;
+      this.buffer = segment == null ? null : segment.asByteBuffer();
+    }
+  }
+
+  private static final Block END = new Block(null); // no more blocks, one for each scanner
+
+  static class Reader extends Thread {
+
+    final ReadableByteChannel channel;
+    final BlockingQueue<Block> free;
+    final BlockingQueue<Block> filled;
+    final int scanners;
+
+    final byte[] carry = new byte[BUFFER_SIZE]; // partial last line of the previous block
+    Exception failure;
+
+    Reader(ReadableByteChannel channel, BlockingQueue<Block> free, BlockingQueue<Block> filled, int scanners) {
+      this.channel = channel;
+      this.free = free;
+      this.filled = filled;
+      this.scanners = scanners;
+    }
+
+    @Override
+    public void run() {
+      try {
+        int carried = 0;
+        boolean eof = false;
+        while (!eof) {
+          final Block block = this.free.take();
+          final ByteBuffer buffer = block.buffer.clear().limit(block.buffer.capacity() - 1).position(PADDING); // 1 byte spare for a missing last linebreak
+          buffer.put(this.carry, 0, carried);
+          while (buffer.hasRemaining() && !eof) { // pipes return partial reads, fill the whole buffer
+            eof = this.channel.read(buffer) < 0;
+          }
+          int end = buffer.position();
+          if (end == PADDING) { // nothing left
+            this.free.put(block);
+            break;
+          }
+
+          if (eof) {
+            if (block.segment.get(ValueLayout.JAVA_BYTE, end - 1) != '\n') {
+              block.segment.set(ValueLayout.JAVA_BYTE, end++, (byte) '\n'); // last line without linebreak
+            }
+            carried = 0;
+          }
+          else {
+            int lastLinebreak = end - 1;
+            while (lastLinebreak >= PADDING && block.segment.get(ValueLayout.JAVA_BYTE, lastLinebreak) != '\n') {
+              lastLinebreak--;
+            }
+            if (lastLinebreak < PADDING) {
+              throw new IllegalStateException("Line is longer than the buffer size: " + BUFFER_SIZE);
+            }
+            carried = end - lastLinebreak - 1;
+            MemorySegment.copy(block.segment, ValueLayout.JAVA_BYTE, lastLinebreak + 1, this.carry, 0, carried);
+            end = lastLinebreak + 1;
+          }
+          block.start = PADDING;
+          block.end = end;
+          this.filled.put(block);
+        }
+      }
+      catch (Exception e) {
+        this.failure = e;
+      }
+      finally {
+        for (int i = 0; i < this.scanners; i++) {
+          this.filled.add(END); // capacity is kept for them
+        }
+      }
+    }
+  }
+
+  static class ScanWorker extends Thread {
+
+    final BlockingQueue<Block> free;
+    final BlockingQueue<Block> filled;
+    final Thread reader;
+    final long drawMask;
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    RuntimeException failure;
+
+    ScanWorker(BlockingQueue<Block> free, BlockingQueue<Block> filled, Thread reader, long drawMask) {
+      this.free = free;
+      this.filled = filled;
+      this.reader = reader;
+      this.drawMask = drawMask;
+    }
+
+    private void check(MemorySegment segment, long lineStart, long lineEnd) {
+      final long ticket = ticketMask(segment, lineEnd); // padding in front covers short first lines
+      if (EXACT_MATCH ? ticket == this.drawMask : Long.bitCount(ticket & this.drawMask) == MATCH_NUMBERS) { // found a match
+        final long end = findNextSemicolon(segment, lineStart);
+        this.output.write(segment.asSlice(lineStart, end - lineStart).toArray(ValueLayout.JAVA_BYTE), 0, (int) (end - lineStart));
+        this.output.write('\n');
+      }
+    }
+
+    // forward scan, every linebreak of a word is visited from the lowest byte, the line start is where the last one ended
+    void scan(Block block) {
+      final MemorySegment segment = block.segment;
+      long lineStart = block.start;
+      long position = block.start;
+      final long loopCount = (block.end - block.start) / 8; // 8 bytes at a time
+      for (long i = 0; i < loopCount; i++) {
+        final long word = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, position);
+        // haszero, a byte above a linebreak could only be flagged falsely when it's 0x0b, never seen in a pool
+        final long hasVal = word ^ 0xa0a0a0a0a0a0a0aL;
+        long linebreaks = (hasVal - 0x0101010101010101L) & ~hasVal & 0x8080808080808080L;
+        while (linebreaks != 0) {
+          final long lineEnd = position + (Long.numberOfTrailingZeros(linebreaks) >>> 3);
+          check(segment, lineStart, lineEnd);
+          lineStart = lineEnd + 1;
+          linebreaks &= linebreaks - 1; // clear the lowest one
+        }
+        position += 8;
+      }
+      for (; position < block.end; position++) { // less than a word left
+        if (segment.get(ValueLayout.JAVA_BYTE, position) == '\n') {
+          check(segment, lineStart, position);
+          lineStart = position + 1;
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        Block block;
+        while ((block = this.filled.take()) != END) {
+          scan(block);
+          this.free.put(block); // back to the reader
+        }
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      catch (RuntimeException e) { // malformed line, the block never goes back, stop the reader before it waits for it forever
+        this.failure = e;
+        this.reader.interrupt();
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.out.println("Input: " + Arrays.toString(args));
+    final long drawMask = drawMask(args);
+
+    System.out.println("Concurrency: " + WORKERS);
+    System.out.println("Buffer size: " + BUFFER_SIZE + " x " + BUFFERS);
+    System.out.flush();
+
+    final BlockingQueue<Block> free = new ArrayBlockingQueue<>(BUFFERS);
+    final BlockingQueue<Block> filled = new ArrayBlockingQueue<>(BUFFERS + WORKERS);
+    final Arena arena = Arena.ofShared();
+    for (int i = 0; i < BUFFERS; i++) {
+      free.add(new Block(arena.allocate(PADDING + BUFFER_SIZE + 1, 8)));
+    }
+
+    try (ReadableByteChannel channel = "-".equals(INPUT) ? new FileInputStream(FileDescriptor.in).getChannel() : FileChannel.open(Path.of(INPUT))) {
+      final Reader reader = new Reader(channel, free, filled, WORKERS);
+      final ScanWorker[] workers = new ScanWorker[WORKERS];
+      for (int i = 0; i < WORKERS; i++) {
+        workers[i] = new ScanWorker(free, filled, reader, drawMask);
+        workers[i].start();
+      }
+      reader.start();
+      reader.join();
+      for (ScanWorker worker : workers) {
+        worker.join();
+      }
+      // winners of a part of the input only, nothing is printed then
+      for (ScanWorker worker : workers) {
+        if (worker.failure != null) {
+          throw new IllegalStateException("Scanning the input failed", worker.failure);
+        }
+      }
+      if (reader.failure != null) {
+        throw new IOException("Reading the input failed", reader.failure);
+      }
+      for (ScanWorker worker : workers) {
+        worker.output.writeTo(System.out);
+      }
+      System.out.flush();
+    }
+  }
+
+}
@@ -1,14 +1,18 @@
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 import sun.misc.Unsafe;
 
 
@@ -32,6 +36,13 @@ public class MainUnsafe {
 
   private static final Path DATA_FILE = Path.of("pool.csv");
 
+  // workers claim line aligned chunks from a shared cursor, -Dworkers=16 -DchunkSize=4m to tune
+  private static final int WORKERS = Integer.getInteger("workers", Runtime.getRuntime().availableProcessors());
+  private static final long CHUNK_SIZE = parseSize(System.getProperty("chunkSize", "8m"));
+
+  // print winners in file order with -Dordered=true, otherwise in the order workers found them
+  private static final boolean ORDERED_OUTPUT = Boolean.getBoolean("ordered");
+
   private static final Unsafe UNSAFE = unsafe();
 
   private static Unsafe unsafe() {
@@ -45,10 +56,73 @@ public class MainUnsafe {
     }
   }
 
-  private static void printName(long address, long start, long end) {
-    final byte[] bytes = new byte[(int) (end - start)];
-    UNSAFE.copyMemory(null, address + start, bytes, Unsafe.ARRAY_BYTE_BASE_OFFSET, end - start);
-    System.out.println(new String(bytes, StandardCharsets.UTF_8));
+  // Per worker output, names are appended off-heap without any lock and written once in the end
+  static final class OutputBuffer {
+
+    private static final int INITIAL_SIZE = 1 << 16;
+
+    MemorySegment buffer = Arena.ofAuto().allocate(INITIAL_SIZE);
+    long size;
+
+    // file offset and buffer position of each name, only kept when the output is ordered
+    long[] offsets = new long[ORDERED_OUTPUT ? 64 : 0];
+    long[] positions = new long[ORDERED_OUTPUT ? 64 : 0];
+    int count;
+
+    void append(long address, long start, long end) {
+      final long length = end - start;
+      if (this.size + length + 1 > this.buffer.byteSize()) { // grow, double the size
+        final MemorySegment grown = Arena.ofAuto().allocate(Math.max(this.buffer.byteSize() << 1, this.size + length + 1));
+        MemorySegment.copy(this.buffer, 0, grown, 0, this.size);
+        this.buffer = grown;
+      }
+      if (ORDERED_OUTPUT) {
+        if (this.count == this.offsets.length) {
+          this.offsets = Arrays.copyOf(this.offsets, this.count << 1);
+          this.positions = Arrays.copyOf(this.positions, this.count << 1);
+        }
+        this.offsets[this.count] = start;
+        this.positions[this.count] = this.size;
+        this.count++;
+      }
+      UNSAFE.copyMemory(address + start, this.buffer.address() + this.size, length);
+      this.buffer.set(ValueLayout.JAVA_BYTE, this.size + length, (byte) '\n');
+      this.size += length + 1;
+    }
+  }
+
+  // single gathering write for all worker buffers, ordered by file offset if requested
+  private static void writeOutputs(OutputBuffer[] outputs, FileChannel channel) throws IOException {
+    ByteBuffer[] buffers;
+    if (ORDERED_OUTPUT) {
+      int total = 0;
+      for (OutputBuffer output : outputs) total += output.count;
+      final long[][] entries = new long[total][]; // offset, position, length and worker of each name
+      int index = 0;
+      for (int w = 0; w < outputs.length; w++) {
+        final OutputBuffer output = outputs[w];
+        for (int i = 0; i < output.count; i++) {
+          final long next = i + 1 < output.count ? output.positions[i + 1] : output.size;
+          entries[index++] = new long[] { output.offsets[i], output.positions[i], next - output.positions[i], w };
+        }
+      }
+      Arrays.sort(entries, (a, b) -> Long.compare(a[0], b[0]));
+      buffers = new ByteBuffer[total];
+      for (int i = 0; i < total; i++) {
+        buffers[i] = outputs[(int) entries[i][3]].buffer.asSlice(entries[i][1], entries[i][2]).asByteBuffer();
+      }
+    }
+    else {
+      buffers = new ByteBuffer[outputs.length];
+      for (int i = 0; i < outputs.length; i++) {
+        buffers[i] = outputs[i].buffer.asSlice(0, outputs[i].size).asByteBuffer();
+      }
+    }
+    int first = 0;
+    while (first < buffers.length) {
+      channel.write(buffers, first, buffers.length - first);
+      while (first < buffers.length && !buffers[first].hasRemaining()) first++; // skip written buffers
+    }
   }
 
   private static long findPreviousLinebreak(long memoryAddress, long offset) {
@@ -82,56 +156,49 @@ public class MainUnsafe {
     return inputSet.contains(searchInput.reset(firstShort, firstLong, secondLong));
   }
 
-  // Custome Set on purpose, less possible checks
+  // Custome Set on purpose, open addressing over parallel primitive arrays.
+  // 720 permutations in 2048 slots take 36kb, the whole table stays in L1/L2 and a probe is the next slot
+  // of the same arrays instead of a pointer chase to another object.
   static final class InputSet {
 
-    // Bigger bucket size less collisions, but you have to find a sweet spot otherwise it becomes slower.
-    private static final int SIZE = 1 << 18; // 256kb
+    private static final int BITS = 11;
+    private static final int SIZE = 1 << BITS; // load factor ~0.35 with 720 entries, misses end in 1-2 probes
     private static final int BITMASK = SIZE - 1;
-    private final TokenizedSearchInput[] values = new TokenizedSearchInput[SIZE];
+    private final short[] firstShorts = new short[SIZE]; // 0 is an empty slot, stored inputs always start with ';'
+    private final long[] firstLongs = new long[SIZE];
+    private final long[] secondLongs = new long[SIZE];
 
-    private static int hashBucket(int hash) {
-      hash = hash ^ (hash >>> 16); // naive bit spreading but surprisingly decreases collision :)
-      return hash & BITMASK; // fast modulo, to find bucket
+    private static int slot(int hash) {
+      return (hash * 0x9E3779B9) >>> (32 - BITS); // fibonacci hashing, top bits are mixed the best
     }
 
     void add(TokenizedSearchInput input) {
-      final int bucket = hashBucket(input.hashCode());
-      TokenizedSearchInput existing = this.values[bucket];
-      if (existing == null) {
-        this.values[bucket] = input;
-        return;
+      int slot = slot(input.hashCode());
+      while (this.firstShorts[slot] != 0) { // linear probing to find a free slot
+        if (matches(slot, input)) return; // repeated numbers give the same permutation more than once
+        slot = (slot + 1) & BITMASK;
       }
-      // collision, linear probing to find a slot
-      // NOTE: here we don't do equals check on purpose since we don't add the same input twice
-      // If we do same input will be added twice but we don't, never :)
-      while (existing.next != null) {
-        existing = existing.next;
-      }
-      existing.next = input;
+      this.firstShorts[slot] = input.firstShort;
+      this.firstLongs[slot] = input.firstLong;
+      this.secondLongs[slot] = input.secondLong;
     }
 
     boolean contains(TokenizedSearchInput input) {
-      final int bucket = hashBucket(input.hashCode());
-      TokenizedSearchInput existing = this.values[bucket];
-      if (existing == null) {
-        return false;
+      int slot = slot(input.hashCode());
+      while (this.firstShorts[slot] != 0) {
+        if (matches(slot, input)) return true;
+        slot = (slot + 1) & BITMASK;
       }
+      return false;
+    }
 
-      boolean contains = false;
-      while (!contains && existing != null) {
-        contains = existing.equals(input);
-        existing = existing.next;
-      }
-      return contains;
+    private boolean matches(int slot, TokenizedSearchInput input) {
+      return this.firstShorts[slot] == input.firstShort && this.firstLongs[slot] == input.firstLong && this.secondLongs[slot] == input.secondLong;
     }
   }
 
   static class TokenizedSearchInput {
 
-    // linked list for collisions
-    TokenizedSearchInput next;
-
     // split bytes into 2 + 8 + 8 (short, long, long)
     short firstShort;
     long firstLong;
@@ -174,43 +241,78 @@ public class MainUnsafe {
     }
   }
 
+  // size with an optional k, m or g suffix
+  static long parseSize(String size) {
+    final char unit = Character.toLowerCase(size.charAt(size.length() - 1));
+    final int shift = unit == 'k' ? 10 : unit == 'm' ? 20 : unit == 'g' ? 30 : 0;
+    return Long.parseLong(shift == 0 ? size : size.substring(0, size.length() - 1)) << shift;
+  }
+
+  // first line start at or after the offset, so chunks always hold whole lines
+  private static long nextLineStart(long memoryAddress, long offset, long fileSize) {
+    long position = Math.min(offset, fileSize);
+    while (position > 0 && position < fileSize && UNSAFE.getByte(memoryAddress + position - 1) != '\n') {
+      position++;
+    }
+    return position;
+  }
+
   static class RegionWorker extends Thread {
 
     final long address;
-    final long start;
-    final long end;
+    final long fileSize;
+    final AtomicLong cursor; // start of the next chunk to claim, shared by all workers
+    final long chunkSize;
 
     final TokenizedSearchInput searchInput = new TokenizedSearchInput();
     final int inputLength;
+    final OutputBuffer output = new OutputBuffer();
 
-    public RegionWorker(long address, long start, long end, int inputLength) {
+    public RegionWorker(long address, long fileSize, AtomicLong cursor, long chunkSize, int inputLength) {
       this.address = address;
-      this.start = start;
-      this.end = end;
+      this.fileSize = fileSize;
+      this.cursor = cursor;
+      this.chunkSize = chunkSize;
       this.inputLength = inputLength;
     }
 
+    private void check(long lineBreakPos) {
+      if (compare(this.address + lineBreakPos, this.searchInput, this.inputLength)) { // found a match
+        final long start = findPreviousLinebreak(this.address, lineBreakPos - 1) + 1;
+        final long end = lineBreakPos - this.inputLength;
+        this.output.append(this.address, start, end);
+      }
+    }
+
     @Override
     public void run() {
-      // System.out.printf("Thread: %s, segment: [%d, %d]%n", Thread.currentThread().getName(), this.start, this.end);
-      // final byte lastByte = this.segment.get(ValueLayout.JAVA_BYTE, this.end);
+      long chunkStart;
+      while ((chunkStart = this.cursor.getAndAdd(this.chunkSize)) < this.fileSize) { // claim the next chunk
+        final long start = nextLineStart(this.address, chunkStart, this.fileSize);
+        final long end = nextLineStart(this.address, chunkStart + this.chunkSize, this.fileSize);
+        scan(start, end);
+      }
+    }
+
+    // scan a line aligned chunk
+    void scan(long start, long end) {
+      // System.out.printf("Thread: %s, segment: [%d, %d]%n", Thread.currentThread().getName(), start, end);
+      // final byte lastByte = this.segment.get(ValueLayout.JAVA_BYTE, end);
       // System.out.printf("Thread: %s, last byte is line break?: %s%n", Thread.currentThread().getName(), lastByte == '\n');
       // System.out.printf("Thread: %s, last byte: %s%n", Thread.currentThread().getName(), new String(new byte[] { lastByte }));
       long word;
-      long relativePos = -1;
-      long lineBreakPos = this.end;
-      long position = this.end; // scan the segment reverse
-      final long loopCount = (this.end - this.start) / 8; // 8 bytes at a time
+      // the last line of the file may have no linebreak, then the chunk end is its line end
+      long relativePos = start < end && UNSAFE.getByte(this.address + end - 1) != '\n' ? 0 : 8;
+      long lineBreakPos = end;
+      long position = end; // scan the segment reverse
+      final long loopCount = (end - start) / 8; // 8 bytes at a time
       for (int i = 0; i < loopCount; i++) {
-        // there maybe redundant checks here because the linebreak position is not always correct
-        // when no linebreak match relativePos will be 8. In such cases, line break positions will be duplicated.
-        // Therefore, this can produce duplicated winners.
-        // However, instead of adding more branches in hotspot we leave it here since compiler can optimize it much better,
-        // and it's faster due to instruction level parallelism
-        if (relativePos !=8 && compare(this.address + lineBreakPos, this.searchInput, this.inputLength)) { // found a match
-          final long start = findPreviousLinebreak(this.address, lineBreakPos - 1) + 1;
-          final long end = lineBreakPos - this.inputLength;
-          printName(this.address, start, end);
+        // check of the linebreak found in the previous iteration, delayed on purpose so that the compare and
+        // the next word load can overlap thanks to instruction level parallelism.
+        // Chunks start and end at line starts, so each linebreak belongs to exactly one word of one chunk,
+        // no line is evaluated twice. The last linebreak is checked after the loop.
+        if (relativePos != 8) {
+          check(lineBreakPos);
         }
 
         word = UNSAFE.getLong(this.address + position - 8); // read a word of 8 bytes each time
@@ -219,6 +321,15 @@ public class MainUnsafe {
 
         position -= 8; // move pointer 8 bytes to the back
       }
+      if (relativePos != 8) { // the last linebreak found
+        check(lineBreakPos);
+      }
+      // less than a word left at the chunk start, there can be one linebreak at most
+      while (--position >= start) {
+        if (UNSAFE.getByte(this.address + position) == '\n') {
+          check(position);
+        }
+      }
     }
   }
 
@@ -258,36 +369,40 @@ public class MainUnsafe {
     // Since we do it only once at startup it's no impact on performance
     generatePermutations(args);
 
-    var concurrency = 8;//2 * Runtime.getRuntime().availableProcessors();
+    var concurrency = WORKERS;
     final long fileSize = Files.size(DATA_FILE);
-    long regionSize = fileSize / concurrency;
+    long chunkSize = CHUNK_SIZE;
 
     if (fileSize <= 1 << 20) { // small file (under 1mb), run in single-thread mode
       concurrency = 1;
-      regionSize = fileSize;
+      chunkSize = Math.max(fileSize, 1);
     }
 
     System.out.println("Concurrency: " + concurrency);
     System.out.println("File size: " + fileSize);
-    System.out.println("Region size: " + regionSize);
+    System.out.println("Chunk size: " + chunkSize);
 
-    long segmentStart = 0;
     final FileChannel channel = (FileChannel) Files.newByteChannel(DATA_FILE, StandardOpenOption.READ);
-    final MemorySegment memory = channel.map(MapMode.READ_ONLY, segmentStart, fileSize, Arena.global());
+    final MemorySegment memory = channel.map(MapMode.READ_ONLY, 0, fileSize, Arena.global());
     final long memoryAddress = memory.address();
 
     final int inputLength = (";" + String.join(";", args)).getBytes().length;
-    if (concurrency == 1) { // shortcut for single-thread mode
-      new RegionWorker(memoryAddress, segmentStart, fileSize, inputLength).start();
-      return;
+    // every worker keeps claiming chunks until the file is done, a slow chunk only holds up its own worker
+    final AtomicLong cursor = new AtomicLong();
+    final RegionWorker[] workers = new RegionWorker[concurrency];
+    for (int i = 0; i < concurrency; i++) {
+      workers[i] = new RegionWorker(memoryAddress, fileSize, cursor, chunkSize, inputLength);
+      workers[i].start();
     }
 
-    // calculate boundaries for regions
-    for (int i = 0; i < concurrency - 1; i++) {
-      new RegionWorker(memoryAddress, segmentStart, segmentStart + regionSize, inputLength).start(); // start processing
-      segmentStart += regionSize;
+    // scan threads never print, all names are written here once
+    final OutputBuffer[] outputs = new OutputBuffer[concurrency];
+    for (int i = 0; i < concurrency; i++) {
+      workers[i].join();
+      outputs[i] = workers[i].output;
     }
-    new RegionWorker(memoryAddress, segmentStart, fileSize, inputLength).start(); // last piece
+    System.out.flush();
+    writeOutputs(outputs, new FileOutputStream(FileDescriptor.out).getChannel());
   }
 
 }
@@ -0,0 +1,263 @@
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorSpecies;
+
+
+/**
+ * Vector API version of the bitmask solution, run with --add-modules jdk.incubator.vector
+ *
+ * Instead of 8 bytes per iteration with the SWAR trick, a whole vector (32 bytes on AVX2, 64 bytes on AVX-512)
+ * is compared against '\n' at once and the result mask gives every linebreak in it.
+ * Lines are matched with the same ticket bitmask as MainBitmask.
+ *
+ * Scanner is selected at runtime with -Dscanner=vector|swar, vector is the default when the preferred species
+ * is at least 16 bytes, otherwise it falls back to the SWAR loop.
+ * Compare both with LinebreakScanBenchmark of the jmh module.
+ *
+ * Big thanks to Mike, for bringing this challenge.
+ *
+ * Follow me at: github.com/yavuztas
+ */
+public class MainVector {
+
+  private static final Path DATA_FILE = Path.of("pool.csv");
+
+  private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+  private static final String SCANNER = System.getProperty("scanner", SPECIES.length() >= 16 ? "vector" : "swar");
+  private static final boolean VECTOR_SCANNER = "vector".equals(SCANNER);
+
+  // numeric tail of a line is 18 bytes at most (6 x ";dd"), three words always cover it
+  private static final int TAIL_BYTES = 24;
+
+  private static void printName(MemorySegment segment, long start, long end) {
+    final byte[] bytes = segment.asSlice(start, end - start).toArray(ValueLayout.JAVA_BYTE);
+    System.out.println(new String(bytes, UTF_8));
+  }
+
+  private static long findPreviousLinebreak(MemorySegment segment, long offset) {
+    long position = offset;
+    while (segment.get(ValueLayout.JAVA_BYTE, position) != '\n') { // read until a linebreak
+      position--;
+      if (position == 0) // no newline found
+        return -1;
+    }
+    return position;
+  }
+
+  private static long findNextSemicolon(MemorySegment segment, long offset) {
+    long position = offset;
+    while (segment.get(ValueLayout.JAVA_BYTE, position) != ';') { // names cannot contain ';', first one ends the name
+      position++;
+    }
+    return position;
+  }
+
+  // hasvalue & haszero
+  // adapted from https://graphics.stanford.edu/~seander/bithacks.html#ZeroInWord
+  // returns [0-7] otherwise 8 when no match
+  private static int linebreakPos(long word) {
+    // // hasvalue
+    final long hasVal = word ^ 0xa0a0a0a0a0a0a0aL; // semicolon pattern
+    return Long.numberOfTrailingZeros(((hasVal - 0x0101010101010101L) & ~hasVal & 0x8080808080808080L)) >>> 3; // haszero
+  }
+
+  // same as MainBitmask.ticketMask, see there for details
+  static long ticketMask(MemorySegment segment, long lineEnd) {
+    long w0 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 8);
+    long w1 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 16);
+    long w2 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, lineEnd - 24);
+    long mask = 0;
+    for (int i = 0; i < 6; i++) {
+      final long ones = (w0 >>> 56) & 0xF;
+      final long tens = (w0 >>> 48) & 0xFF;
+      final long twoDigits = (tens - ';') >>> 63; // 1 when it's a digit, 0 when it's ';' since digits are below ';' in ascii
+      mask |= 1L << (ones + (twoDigits * 10 * (tens & 0xF)));
+      final int shift = (int) (16 + (twoDigits << 3)); // 2 or 3 bytes
+      w0 = (w0 << shift) | (w1 >>> (64 - shift));
+      w1 = (w1 << shift) | (w2 >>> (64 - shift));
+      w2 <<= shift;
+    }
+    return mask;
+  }
+
+  static long ticketMaskSlow(MemorySegment segment, long lineEnd) {
+    long mask = 0;
+    long pos = lineEnd - 1;
+    for (int i = 0; i < 6; i++) {
+      int number = segment.get(ValueLayout.JAVA_BYTE, pos) - '0';
+      final byte b = segment.get(ValueLayout.JAVA_BYTE, pos - 1);
+      if (b != ';') {
+        pos--; // skip tens digit
+        number += (b - '0') * 10;
+      }
+      pos -= 2;
+      mask |= 1L << number;
+    }
+    return mask;
+  }
+
+  static long drawMask(String[] input) {
+    long mask = 0;
+    for (String number : input) {
+      final int n = Integer.parseInt(number);
+      if (n < 1 || n > 49) {
+        throw new IllegalArgumentException("Numbers must be unique in [1-49]: " + Arrays.toString(input));
+      }
+      mask |= 1L << n;
+    }
+    if (input.length != 6 || Long.bitCount(mask) != 6) { // a repeated number sets the same bit
+      throw new IllegalArgumentException("Expected 6 unique numbers: " + Arrays.toString(input));
+    }
+    return mask;
+  }
+
+  // first line start at or after the offset, so regions always hold whole lines
+  private static long nextLineStart(MemorySegment segment, long offset, long fileSize) {
+    long position = Math.min(offset, fileSize);
+    while (position < fileSize && segment.get(ValueLayout.JAVA_BYTE, position - 1) != '\n') {
+      position++;
+    }
+    return position;
+  }
+
+  static class RegionWorker extends Thread {
+
+    final MemorySegment segment;
+    final long start;
+    final long end;
+
+    final long drawMask;
+
+    public RegionWorker(MemorySegment memory, long start, long end, long drawMask) {
+      this.segment = memory;
+      this.start = start;
+      this.end = end;
+      this.drawMask = drawMask;
+    }
+
+    private void check(long lineBreakPos) {
+      final long ticket = lineBreakPos >= TAIL_BYTES ? ticketMask(this.segment, lineBreakPos) : ticketMaskSlow(this.segment, lineBreakPos);
+      if (ticket == this.drawMask) { // found a match
+        final long start = findPreviousLinebreak(this.segment, lineBreakPos - 1) + 1;
+        final long end = findNextSemicolon(this.segment, start);
+        printName(this.segment, start, end);
+      }
+    }
+
+    // one vector per iteration, every linebreak in the vector is checked from the highest to the lowest
+    private void scanVector() {
+      if (this.start < this.end && this.segment.get(ValueLayout.JAVA_BYTE, this.end - 1) != '\n') { // last line without linebreak
+        check(this.end);
+      }
+      final int length = SPECIES.length();
+      long position = this.end; // scan the segment reverse
+      while (position - length >= this.start) {
+        final ByteVector vector = ByteVector.fromMemorySegment(SPECIES, this.segment, position - length, ByteOrder.nativeOrder());
+        long linebreaks = vector.eq((byte) '\n').toLong(); // bit i is set when byte i is a linebreak
+        while (linebreaks != 0) {
+          final int highest = 63 - Long.numberOfLeadingZeros(linebreaks);
+          check(position - length + highest);
+          linebreaks ^= 1L << highest;
+        }
+        position -= length;
+      }
+      // leftover at the beginning of the region, less than a vector
+      while (--position >= this.start) {
+        if (this.segment.get(ValueLayout.JAVA_BYTE, position) == '\n') {
+          check(position);
+        }
+      }
+    }
+
+    // the SWAR loop as in MainBitmask
+    private void scanSwar() {
+      long word;
+      // the last line of the file may have no linebreak, then the region end is its line end
+      long relativePos = this.start < this.end && this.segment.get(ValueLayout.JAVA_BYTE, this.end - 1) != '\n' ? 0 : 8;
+      long lineBreakPos = this.end;
+      long position = this.end; // scan the segment reverse
+      final long loopCount = (this.end - this.start) / 8; // 8 bytes at a time
+      for (int i = 0; i < loopCount; i++) {
+        if (relativePos != 8) {
+          check(lineBreakPos);
+        }
+
+        word = this.segment.get(ValueLayout.JAVA_LONG_UNALIGNED, position - 8); // read a word of 8 bytes each time
+        relativePos = linebreakPos(word); // linebreak position in the word, if not returns 8
+        lineBreakPos = position - 8 + relativePos;
+
+        position -= 8; // move pointer 8 bytes to the back
+      }
+      if (relativePos != 8) { // the last linebreak found
+        check(lineBreakPos);
+      }
+      // less than a word left at the region start, there can be one linebreak at most
+      while (--position >= this.start) {
+        if (this.segment.get(ValueLayout.JAVA_BYTE, position) == '\n') {
+          check(position);
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      if (VECTOR_SCANNER) {
+        scanVector();
+      }
+      else {
+        scanSwar();
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.out.println("Input: " + Arrays.toString(args));
+    final long drawMask = drawMask(args);
+    if (!VECTOR_SCANNER && !"swar".equals(SCANNER)) {
+      throw new IllegalArgumentException("Unknown scanner: " + SCANNER + ", expected vector or swar");
+    }
+
+    var concurrency = 2 * Runtime.getRuntime().availableProcessors();
+    final long fileSize = Files.size(DATA_FILE);
+    long regionSize = fileSize / concurrency;
+
+    if (fileSize <= 1 << 20) { // small file (under 1mb), run in single-thread mode
+      concurrency = 1;
+      regionSize = fileSize;
+    }
+
+    System.out.println("Scanner: " + (VECTOR_SCANNER ? "vector " + SPECIES.vectorBitSize() + " bits" : "swar"));
+    System.out.println("Concurrency: " + concurrency);
+    System.out.println("File size: " + fileSize);
+    System.out.println("Region size: " + regionSize);
+
+    long segmentStart = 0;
+    final FileChannel channel = (FileChannel) Files.newByteChannel(DATA_FILE, StandardOpenOption.READ);
+    final MemorySegment memory = channel.map(MapMode.READ_ONLY, segmentStart, fileSize, Arena.global());
+
+    if (concurrency == 1) { // shortcut for single-thread mode
+      new RegionWorker(memory, segmentStart, fileSize, drawMask).start();
+      return;
+    }
+
+    // calculate boundaries for regions, snapped to line starts
+    for (int i = 0; i < concurrency - 1; i++) {
+      final long segmentEnd = nextLineStart(memory, segmentStart + regionSize, fileSize);
+      new RegionWorker(memory, segmentStart, segmentEnd, drawMask).start(); // start processing
+      segmentStart = segmentEnd;
+    }
+    new RegionWorker(memory, segmentStart, fileSize, drawMask).start(); // last piece
+  }
+
+}
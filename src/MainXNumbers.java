@@ -1,19 +1,22 @@
-import static java.lang.foreign.ValueLayout.JAVA_BYTE;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import java.io.BufferedOutputStream;
 import java.io.FileDescriptor;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 
 /**
@@ -22,6 +25,15 @@ import java.util.Arrays;
  * Initial with number parsing              :     ~1500 ms
  * Eleminate copies and buffer print stream :     ~1200 ms
  *
+ * Tier mode: run with -Dtiers=4,5,6 to score every line once and count all tiers [0-6] in the same pass.
+ * Names of the given tiers are written into separate files, winners-4.txt, winners-5.txt ...
+ *
+ * Game format: run with -Dgame=7/35 for 7 numbers in [1-35], or -Dgame=5/69+26 for 5 numbers in [1-69] and a bonus
+ * number in [1-26] as the last field of the line. Default is 6/49. The format is a static final, so the matcher loops
+ * get the pick count as a constant and the bonus branch is compiled out for games without one.
+ * Bonus games have tiers like "5+1" (5 numbers and the bonus) next to "5", e.g. -Dtiers=4+1,5,5+1.
+ * A winner matches -Dmatch numbers regardless of the bonus, default is one less than the pick count.
+ *
  *
  * Testing on JDK 21.0.5-graal JIT compiler (no native), limiting to 8 threads.
  * Big thanks to Mike, for bringing this challenge.
@@ -32,11 +44,69 @@ public class MainXNumbers {
 
   private static final Path DATA_FILE = Path.of("pool.csv");
 
-  private static final int MAX_NAME_LENGTH = 1024; // maxiumum possible name length to print winners in a more performant way
-  private static final int MATCH_X_NUMBERS = 5; // how many numbers to match for a winner
+  // workers claim line aligned chunks from a shared cursor, -Dworkers=16 -DchunkSize=4m to tune
+  private static final int WORKERS = Integer.getInteger("workers", Runtime.getRuntime().availableProcessors());
+  private static final long CHUNK_SIZE = parseSize(System.getProperty("chunkSize", "8m"));
+
+  // print winners in file order with -Dordered=true, otherwise in the order workers found them
+  private static final boolean ORDERED_OUTPUT = Boolean.getBoolean("ordered");
+
+  private static final GameFormat GAME = GameFormat.parse(System.getProperty("game", "6/49"));
+  private static final int MATCH_X_NUMBERS = Integer.getInteger("match", GAME.pick() - 1); // how many numbers to match for a winner
+  private static final int MAX_SCORE = GAME.maxScore();
+  private static final int[] TIERS = System.getProperty("tiers") == null ? null
+    : Stream.of(System.getProperty("tiers").split(",")).mapToInt(t -> GAME.parseTier(t.strip())).toArray();
+
+  /**
+   * Numbers of a ticket, pick unique numbers in [1-range] and an optional bonus number in [1-bonusRange] as the last field.
+   * Score of a line is the count of matching numbers, for bonus games it's shifted left by one and the lowest bit is the bonus.
+   */
+  record GameFormat(int pick, int range, int bonusRange) {
+
+    static GameFormat parse(String format) {
+      final String[] parts = format.strip().split("[/+]");
+      final GameFormat game = new GameFormat(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), parts.length > 2 ? Integer.parseInt(parts[2]) : 0);
+      // numbers have 2 digits at most, all fields must fit in the three words of the tail
+      if (game.pick < 1 || game.pick > game.range || game.range > 99 || game.bonusRange > 99 || game.fields() > TAIL_BYTES / 3) {
+        throw new IllegalArgumentException("Unsupported game format: " + format);
+      }
+      return game;
+    }
 
-  // Custome print stream to buffer all output and flush once in the end. This is faster when we have a lot of winners
-  private static final int PRINT_STREAM_BUFFER_SIZE = 1 << 17; // 128k - enough for apprx. 5k winners
+    boolean hasBonus() {
+      return this.bonusRange > 0;
+    }
+
+    // fields after the name
+    int fields() {
+      return hasBonus() ? this.pick + 1 : this.pick;
+    }
+
+    int maxScore() {
+      return hasBonus() ? this.pick << 1 | 1 : this.pick;
+    }
+
+    int matches(int score) {
+      return hasBonus() ? score >> 1 : score;
+    }
+
+    String label(int score) {
+      return hasBonus() && (score & 1) == 1 ? matches(score) + "+1" : String.valueOf(matches(score));
+    }
+
+    // "5" or "5+1" into a score
+    int parseTier(String tier) {
+      final boolean bonus = tier.endsWith("+1");
+      final int matches = Integer.parseInt(bonus ? tier.substring(0, tier.length() - 2) : tier);
+      if (matches > this.pick || (bonus && !hasBonus())) {
+        throw new IllegalArgumentException("Unknown tier " + tier + " for " + this);
+      }
+      return hasBonus() ? matches << 1 | (bonus ? 1 : 0) : matches;
+    }
+  }
+
+  // Custome print stream to buffer all output and flush once in the end. Names are not printed here but in worker buffers
+  private static final int PRINT_STREAM_BUFFER_SIZE = 1 << 12;
   private static final PrintStream OUT = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), PRINT_STREAM_BUFFER_SIZE), false, UTF_8);
 
   // hasvalue & haszero
@@ -48,126 +118,286 @@ public class MainXNumbers {
     return Long.numberOfTrailingZeros(((hasVal - 0x0101010101010101L) & ~hasVal & 0x8080808080808080L)) >>> 3; // haszero
   }
 
+  // numeric tail of a line is 3 bytes per field at most (";dd"), three words cover 8 fields
+  private static final int TAIL_BYTES = 24;
+
+  // number of the last field in the word, top byte is the ones digit and the one below is either the tens digit or ';'
+  private static int fieldNumber(long word) {
+    final long ones = (word >>> 56) & 0xF;
+    final long tens = (word >>> 48) & 0xFF;
+    final long twoDigits = (tens - ';') >>> 63; // 1 when it's a digit, 0 when it's ';' since digits are below ';' in ascii
+    return (int) (ones + (twoDigits * 10 * (tens & 0xF)));
+  }
+
+  // bits taken by the last field with its ';', 2 or 3 bytes
+  private static int fieldShift(long word) {
+    final long tens = (word >>> 48) & 0xFF;
+    return (int) (16 + (((tens - ';') >>> 63) << 3));
+  }
+
+  // Branchless version of compareNumbersSlow, same register walk as MainBitmask.ticketMask.
+  // The tail of the line is loaded in three words, every field is read from the top of w0 then the words are shifted
+  // by the field width, so mixed 1 and 2 digit numbers don't cost any branch mispredictions.
   private static int compareNumbers(MemorySegment segment, long offset, TokenizedSearchInput searchInput) {
+    if (offset < TAIL_BYTES) { // first line of the file can be shorter than three words
+      return compareNumbersSlow(segment, offset, searchInput);
+    }
+    long w0 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, offset - 8);
+    long w1 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, offset - 16);
+    long w2 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, offset - 24);
+    int bonus = 0;
+    int shift;
+    if (GAME.hasBonus()) { // bonus is the last field
+      bonus = fieldNumber(w0) == searchInput.bonus ? 1 : 0;
+      shift = fieldShift(w0);
+      w0 = (w0 << shift) | (w1 >>> (64 - shift));
+      w1 = (w1 << shift) | (w2 >>> (64 - shift));
+      w2 <<= shift;
+    }
+    int score = 0;
+    for (int i = 0; i < GAME.pick(); i++) { // pick count is a constant, the loop is unrolled
+      score += searchInput.numbers[fieldNumber(w0)];
+      shift = fieldShift(w0);
+      w0 = (w0 << shift) | (w1 >>> (64 - shift));
+      w1 = (w1 << shift) | (w2 >>> (64 - shift));
+      w2 <<= shift;
+    }
+    return GAME.hasBonus() ? score << 1 | bonus : score;
+  }
+
+  // bytes of the numeric tail including the ';' after the name, same walk as compareNumbers
+  private static int tailLength(MemorySegment segment, long offset) {
+    if (offset < TAIL_BYTES) {
+      int length = 0;
+      for (int i = 0; i < GAME.fields(); i++) {
+        length += segment.get(ValueLayout.JAVA_BYTE, offset - length - 2) == ';' ? 2 : 3;
+      }
+      return length;
+    }
+    long w0 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, offset - 8);
+    long w1 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, offset - 16);
+    long w2 = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, offset - 24);
+    int length = 0;
+    for (int i = 0; i < GAME.fields(); i++) {
+      final int shift = fieldShift(w0);
+      length += shift >>> 3;
+      w0 = (w0 << shift) | (w1 >>> (64 - shift));
+      w1 = (w1 << shift) | (w2 >>> (64 - shift));
+      w2 <<= shift;
+    }
+    return length;
+  }
+
+  private static int compareNumbersSlow(MemorySegment segment, long offset, TokenizedSearchInput searchInput) {
     int score = 0;
     int number;
     int limit = 0;
     long pos = offset - 1;
-    while (limit < 6) { // only search for 6 numbers
+    int bonus = 0;
+    if (GAME.hasBonus()) { // bonus is the last field
       final byte b1 = segment.get(ValueLayout.JAVA_BYTE, pos);
       final byte b2 = segment.get(ValueLayout.JAVA_BYTE, pos - 1);
-      number = b1 - 0x30;
+      number = b1 & 0xF;
       if (b2 != ';') {
         pos--; // skip next ';'
-        number += (b2 - 0x30) * 10;
+        number += (b2 & 0xF) * 10;
+      }
+      pos -= 2;
+      bonus = number == searchInput.bonus ? 1 : 0;
+    }
+    while (limit < GAME.pick()) { // only search for the picked numbers
+      final byte b1 = segment.get(ValueLayout.JAVA_BYTE, pos);
+      final byte b2 = segment.get(ValueLayout.JAVA_BYTE, pos - 1);
+      number = b1 & 0xF; // low nibbles like fieldNumber, so name bytes stay in the range of numbers[]
+      if (b2 != ';') {
+        pos--; // skip next ';'
+        number += (b2 & 0xF) * 10;
       }
       pos -= 2;
       score += searchInput.numbers[number];
       limit++;
     }
-    return score;
+    return GAME.hasBonus() ? score << 1 | bonus : score;
   }
 
   static class TokenizedSearchInput {
 
-    final int length;
 //    final int[] numbers = new int[1 << 16]; // 64K, can be addressed with unsigned short
 
     // store numbers in array index
-    final int[] numbers = new int[50]; // can store [0-49]
+    final int[] numbers = new int[166]; // fields are read from the low nibbles, two bytes of any kind give at most 15 * 10 + 15
+    final int bonus;
 
     public TokenizedSearchInput(String[] args) {
-      // we prepend extra 2 bytes to avoid out of bounds errors
-      final byte[] bytes = ("x;" + String.join(";", args)).getBytes();
-      this.length = bytes.length - 2; // exclude extra 2
-
-      /*
-      final MemorySegment segment = MemorySegment.ofBuffer(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN));
-      int limit = 0;
-      long pos = bytes.length - 1;
-      while (limit < 6) { // only search for 6 numbers
-        final short word = Short.reverseBytes(segment.get(ValueLayout.JAVA_SHORT_UNALIGNED, pos - 1));
-        final int semiColonPos = semiColonPos(word);
-        pos -= semiColonPos + 1;
-        this.numbers[word] = 1;
-        limit++;
-      }*/
-
-      int number;
-      int pos = bytes.length - 1;
-      while (pos > 0) { // parse numbers as int starting from backwards
-        final byte b1 = bytes[pos];
-        final byte b2 = bytes[pos-1];
-        number = b1 - 0x30;
-        if (b2 != ';') {
-          pos--; // skip next ';'
-          number += (b2 - 0x30) * 10;
+      if (args.length != GAME.fields()) {
+        throw new IllegalArgumentException("Expected " + GAME.fields() + " numbers for " + GAME + ": " + Arrays.toString(args));
+      }
+      for (int i = 0; i < GAME.pick(); i++) {
+        final int number = Integer.parseInt(args[i]);
+        if (number < 1 || number > GAME.range() || this.numbers[number] == 1) {
+          throw new IllegalArgumentException("Numbers must be unique in [1-" + GAME.range() + "]: " + Arrays.toString(args));
         }
-        pos -= 2;
         this.numbers[number] = 1;
       }
+      this.bonus = GAME.hasBonus() ? Integer.parseInt(args[GAME.pick()]) : 0;
+      if (GAME.hasBonus() && (this.bonus < 1 || this.bonus > GAME.bonusRange())) {
+        throw new IllegalArgumentException("Bonus number must be in [1-" + GAME.bonusRange() + "]: " + Arrays.toString(args));
+      }
+    }
+  }
+
+  // size with an optional k, m or g suffix
+  static long parseSize(String size) {
+    final char unit = Character.toLowerCase(size.charAt(size.length() - 1));
+    final int shift = unit == 'k' ? 10 : unit == 'm' ? 20 : unit == 'g' ? 30 : 0;
+    return Long.parseLong(shift == 0 ? size : size.substring(0, size.length() - 1)) << shift;
+  }
+
+  // first line start at or after the offset, so chunks always hold whole lines
+  private static long nextLineStart(MemorySegment segment, long offset, long fileSize) {
+    long position = Math.min(offset, fileSize);
+    while (position > 0 && position < fileSize && segment.get(ValueLayout.JAVA_BYTE, position - 1) != '\n') {
+      position++;
+    }
+    return position;
+  }
+
+  // Per worker output, names are appended off-heap without any lock and written once in the end
+  static final class OutputBuffer {
+
+    private static final int INITIAL_SIZE = 1 << 16;
+
+    MemorySegment buffer = Arena.ofAuto().allocate(INITIAL_SIZE);
+    long size;
+
+    // file offset and buffer position of each name, only kept when the output is ordered
+    long[] offsets = new long[ORDERED_OUTPUT ? 64 : 0];
+    long[] positions = new long[ORDERED_OUTPUT ? 64 : 0];
+    int count;
+
+    void append(MemorySegment segment, long start, long end) {
+      final long length = end - start;
+      if (this.size + length + 1 > this.buffer.byteSize()) { // grow, double the size
+        final MemorySegment grown = Arena.ofAuto().allocate(Math.max(this.buffer.byteSize() << 1, this.size + length + 1));
+        MemorySegment.copy(this.buffer, 0, grown, 0, this.size);
+        this.buffer = grown;
+      }
+      if (ORDERED_OUTPUT) {
+        if (this.count == this.offsets.length) {
+          this.offsets = Arrays.copyOf(this.offsets, this.count << 1);
+          this.positions = Arrays.copyOf(this.positions, this.count << 1);
+        }
+        this.offsets[this.count] = start;
+        this.positions[this.count] = this.size;
+        this.count++;
+      }
+      MemorySegment.copy(segment, start, this.buffer, this.size, length);
+      this.buffer.set(ValueLayout.JAVA_BYTE, this.size + length, (byte) '\n');
+      this.size += length + 1;
+    }
+  }
+
+  // single gathering write for all worker buffers, ordered by file offset if requested
+  private static void writeOutputs(OutputBuffer[] outputs, FileChannel channel) throws IOException {
+    ByteBuffer[] buffers;
+    if (ORDERED_OUTPUT) {
+      int total = 0;
+      for (OutputBuffer output : outputs) total += output.count;
+      final long[][] entries = new long[total][]; // offset, position, length and worker of each name
+      int index = 0;
+      for (int w = 0; w < outputs.length; w++) {
+        final OutputBuffer output = outputs[w];
+        for (int i = 0; i < output.count; i++) {
+          final long next = i + 1 < output.count ? output.positions[i + 1] : output.size;
+          entries[index++] = new long[] { output.offsets[i], output.positions[i], next - output.positions[i], w };
+        }
+      }
+      Arrays.sort(entries, (a, b) -> Long.compare(a[0], b[0]));
+      buffers = new ByteBuffer[total];
+      for (int i = 0; i < total; i++) {
+        buffers[i] = outputs[(int) entries[i][3]].buffer.asSlice(entries[i][1], entries[i][2]).asByteBuffer();
+      }
+    }
+    else {
+      buffers = new ByteBuffer[outputs.length];
+      for (int i = 0; i < outputs.length; i++) {
+        buffers[i] = outputs[i].buffer.asSlice(0, outputs[i].size).asByteBuffer();
+      }
+    }
+    int first = 0;
+    while (first < buffers.length) {
+      channel.write(buffers, first, buffers.length - first);
+      while (first < buffers.length && !buffers[first].hasRemaining()) first++; // skip written buffers
     }
   }
 
   static class RegionWorker extends Thread {
 
     final MemorySegment segment;
-    final long start;
-    final long end;
+    final long fileSize;
+    final AtomicLong cursor; // start of the next chunk to claim, shared by all workers
+    final long chunkSize;
 
     final TokenizedSearchInput searchInput;
-    final byte[] printBuffer = new byte[MAX_NAME_LENGTH]; // re-use buffer to eleminate byte-array copy
+    final OutputBuffer output = new OutputBuffer();
 
-    public RegionWorker(MemorySegment memory, long start, long end, TokenizedSearchInput searchInput) {
+    public RegionWorker(MemorySegment memory, long fileSize, AtomicLong cursor, long chunkSize, TokenizedSearchInput searchInput) {
       this.segment = memory;
-      this.start = start;
-      this.end = end;
+      this.fileSize = fileSize;
+      this.cursor = cursor;
+      this.chunkSize = chunkSize;
       this.searchInput = searchInput;
     }
 
-    private void printName(long start, long end) {
-      final int length = (int) (end - start);
-      MemorySegment.copy(this.segment, JAVA_BYTE, start, this.printBuffer, 0, length);
-      this.printBuffer[length] = '\n'; // append new line
-      OUT.write(this.printBuffer, 0, length + 1);
+    // name boundaries of the last found line, set by findName
+    long nameStart;
+    long nameEnd;
+
+    void findName(long lineBreakPos) {
+      this.nameEnd = lineBreakPos - tailLength(this.segment, lineBreakPos); // name ends where the numbers start
+      long start = this.nameEnd - 1;
+      while (start >= 0 && this.segment.get(ValueLayout.JAVA_BYTE, start) != '\n') { // scan back to the linebreak
+        start--;
+      }
+      this.nameStart = start + 1;
+    }
+
+    void check(long lineBreakPos) {
+      if (GAME.matches(compareNumbers(this.segment, lineBreakPos, this.searchInput)) == MATCH_X_NUMBERS) { // found a match
+        findName(lineBreakPos);
+        this.output.append(this.segment, this.nameStart, this.nameEnd);
+      }
     }
 
     @Override
     public void run() {
-      // System.out.printf("Thread: %s, segment: [%d, %d]%n", Thread.currentThread().getName(), this.start, this.end);
-      // final byte lastByte = this.segment.get(ValueLayout.JAVA_BYTE, this.end);
+      long chunkStart;
+      while ((chunkStart = this.cursor.getAndAdd(this.chunkSize)) < this.fileSize) { // claim the next chunk
+        final long start = nextLineStart(this.segment, chunkStart, this.fileSize);
+        final long end = nextLineStart(this.segment, chunkStart + this.chunkSize, this.fileSize);
+        scan(start, end);
+      }
+    }
+
+    // scan a line aligned chunk
+    void scan(long start, long end) {
+      // System.out.printf("Thread: %s, segment: [%d, %d]%n", Thread.currentThread().getName(), start, end);
+      // final byte lastByte = this.segment.get(ValueLayout.JAVA_BYTE, end);
       // System.out.printf("Thread: %s, last byte is line break?: %s%n", Thread.currentThread().getName(), lastByte == '\n');
       // System.out.printf("Thread: %s, last byte: %s%n", Thread.currentThread().getName(), new String(new byte[] { lastByte }));
       long word;
-      long relativePos = 8;
-      long lineBreakPos = this.end;
-      long position = this.end; // scan the segment reverse
-      final long loopCount = (this.end - this.start) / 8; // 8 bytes at a time
+      // the last line of the file may have no linebreak, then the chunk end is its line end
+      long relativePos = start < end && this.segment.get(ValueLayout.JAVA_BYTE, end - 1) != '\n' ? 0 : 8;
+      long lineBreakPos = end;
+      long position = end; // scan the segment reverse
+      final long loopCount = (end - start) / 8; // 8 bytes at a time
       for (int i = 0; i < loopCount; i++) {
-        // there maybe redundant checks here because the linebreak position is not always correct
-        // when no linebreak match relativePos will be 8. In such cases, line break positions will be duplicated.
-        // Therefore, this can produce duplicated winners.
-        // However, instead of adding more branches in hotspot we leave it here since compiler can optimize it much better,
-        // and it's faster due to instruction level parallelism
-        if (relativePos !=8 && compareNumbers(this.segment, lineBreakPos, this.searchInput) == MATCH_X_NUMBERS) { // found a match
-          // scan back to find name bounderies
-          byte b;
-          int semicolonCount = 0;
-          long start = lineBreakPos - 1;
-          long end = lineBreakPos - this.searchInput.length;
-          while ((b = this.segment.get(ValueLayout.JAVA_BYTE, start)) != '\n') { // read until a linebreak
-            start--;
-            if (b == ';') semicolonCount++;
-            if (semicolonCount == 6) {
-              semicolonCount = 0;
-              end = start; // found name end
-            }
-            if (start == 0) {
-              start = -1; // no newline found
-              break;
-            }
-          }
-          printName(start + 1, end + 1);
+        // check of the linebreak found in the previous iteration, delayed on purpose so that the compare and
+        // the next word load can overlap thanks to instruction level parallelism.
+        // Chunks start and end at line starts, so each linebreak belongs to exactly one word of one chunk,
+        // no line is evaluated twice. The last linebreak is checked after the loop.
+        if (relativePos != 8) {
+          check(lineBreakPos);
         }
 
         word = this.segment.get(ValueLayout.JAVA_LONG_UNALIGNED, position - 8); // read a word of 8 bytes each time
@@ -176,46 +406,123 @@ public class MainXNumbers {
 
         position -= 8; // move pointer 8 bytes to the back
       }
+      if (relativePos != 8) { // the last linebreak found
+        check(lineBreakPos);
+      }
+      // less than a word left at the chunk start, there can be one linebreak at most
+      while (--position >= start) {
+        if (this.segment.get(ValueLayout.JAVA_BYTE, position) == '\n') {
+          check(position);
+        }
+      }
+    }
+  }
+
+  // Scores every line once, counts all tiers and keeps names of the requested tiers per thread
+  static class TierWorker extends RegionWorker {
+
+    final long[] tierCounts = new long[MAX_SCORE + 1];
+    final OutputBuffer[] tierOutputs = new OutputBuffer[MAX_SCORE + 1];
+
+    public TierWorker(MemorySegment memory, long fileSize, AtomicLong cursor, long chunkSize, TokenizedSearchInput searchInput) {
+      super(memory, fileSize, cursor, chunkSize, searchInput);
+      for (int tier : TIERS) {
+        this.tierOutputs[tier] = new OutputBuffer();
+      }
+    }
+
+    @Override
+    void check(long lineBreakPos) {
+      final int score = compareNumbers(this.segment, lineBreakPos, this.searchInput);
+      this.tierCounts[score]++;
+      final OutputBuffer output = this.tierOutputs[score];
+      if (output != null) {
+        findName(lineBreakPos);
+        output.append(this.segment, this.nameStart, this.nameEnd);
+      }
+    }
+  }
+
+  private static void runTiers(MemorySegment memory, long fileSize, int concurrency, long chunkSize, TokenizedSearchInput searchInput) throws Exception {
+    final TierWorker[] workers = new TierWorker[concurrency];
+    final AtomicLong cursor = new AtomicLong();
+    for (int i = 0; i < concurrency; i++) {
+      workers[i] = new TierWorker(memory, fileSize, cursor, chunkSize, searchInput);
+    }
+    for (TierWorker worker : workers) worker.start();
+    for (TierWorker worker : workers) worker.join();
+
+    // merge per thread counters
+    final long[] tierCounts = new long[MAX_SCORE + 1];
+    for (TierWorker worker : workers) {
+      for (int score = 0; score <= MAX_SCORE; score++) {
+        tierCounts[score] += worker.tierCounts[score];
+      }
+    }
+    for (int score = MAX_SCORE; score >= 0; score--) {
+      OUT.println("Match " + GAME.label(score) + ": " + tierCounts[score]);
+    }
+
+    for (int tier : TIERS) {
+      final OutputBuffer[] outputs = new OutputBuffer[concurrency];
+      for (int i = 0; i < concurrency; i++) {
+        outputs[i] = workers[i].tierOutputs[tier];
+      }
+      try (FileChannel out = FileChannel.open(Path.of("winners-" + GAME.label(tier) + ".txt"), StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+        writeOutputs(outputs, out);
+      }
     }
   }
 
   public static void main(String[] args) throws Exception {
     System.out.println("Input: " + Arrays.toString(args));
+    System.out.println("Game: " + GAME.pick() + "/" + GAME.range() + (GAME.hasBonus() ? "+" + GAME.bonusRange() : ""));
 
     // build input search string
     final TokenizedSearchInput searchInput = new TokenizedSearchInput(args);
 
-    var concurrency = 2 * Runtime.getRuntime().availableProcessors();
+    var concurrency = WORKERS;
     final long fileSize = Files.size(DATA_FILE);
-    long regionSize = fileSize / concurrency;
+    long chunkSize = CHUNK_SIZE;
 
     if (fileSize <= 1 << 20) { // small file (under 1mb), run in single-thread mode
       concurrency = 1;
-      regionSize = fileSize;
+      chunkSize = Math.max(fileSize, 1);
     }
 
     System.out.println("Concurrency: " + concurrency);
     System.out.println("File size: " + fileSize);
-    System.out.println("Region size: " + regionSize);
+    System.out.println("Chunk size: " + chunkSize);
 
     // print all buffered output after JVM exits
     Runtime.getRuntime().addShutdownHook(new Thread(OUT::flush));
 
-    long segmentStart = 0;
     final FileChannel channel = (FileChannel) Files.newByteChannel(DATA_FILE, StandardOpenOption.READ);
-    final MemorySegment memory = channel.map(MapMode.READ_ONLY, segmentStart, fileSize, Arena.global());
+    final MemorySegment memory = channel.map(MapMode.READ_ONLY, 0, fileSize, Arena.global());
 
-    if (concurrency == 1) { // shortcut for single-thread mode
-      new RegionWorker(memory, segmentStart, fileSize, searchInput).start();
+    if (TIERS != null) { // all tiers in a single pass
+      runTiers(memory, fileSize, concurrency, chunkSize, searchInput);
       return;
     }
 
-    // calculate boundaries for regions
-    for (int i = 0; i < concurrency - 1; i++) {
-      new RegionWorker(memory, segmentStart, segmentStart + regionSize, searchInput).start(); // start processing
-      segmentStart += regionSize;
+    // every worker keeps claiming chunks until the file is done, a slow chunk only holds up its own worker
+    final AtomicLong cursor = new AtomicLong();
+    final RegionWorker[] workers = new RegionWorker[concurrency];
+    for (int i = 0; i < concurrency; i++) {
+      workers[i] = new RegionWorker(memory, fileSize, cursor, chunkSize, searchInput);
+      workers[i].start();
+    }
+
+    // scan threads never print, all names are written here once
+    final OutputBuffer[] outputs = new OutputBuffer[concurrency];
+    for (int i = 0; i < concurrency; i++) {
+      workers[i].join();
+      outputs[i] = workers[i].output;
     }
-    new RegionWorker(memory, segmentStart, fileSize, searchInput).start(); // last piece
+    System.out.flush();
+    OUT.flush();
+    writeOutputs(outputs, new FileOutputStream(FileDescriptor.out).getChannel());
   }
 
 }
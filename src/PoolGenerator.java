@@ -0,0 +1,300 @@
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+
+/**
+ * Writes a synthetic pool.csv of any size, same seed and options always give the same file.
+ *
+ * The file is preallocated and mapped, threads fill fixed chunks of it in parallel. Lines are variable sized,
+ * so the last two lines of every chunk are padded to end the chunk exactly. Every chunk has its own random
+ * derived from the seed and the chunk index, the output doesn't depend on the thread count.
+ *
+ * Options:
+ *  -Dsize=50g             file size, k/m/g suffix
+ *  -Dout=pool.csv         output file, answers are written next to it as pool.csv.answers
+ *  -Dseed=42
+ *  -Drange=49 -Dpick=6    numbers of a ticket, unique in [1-range]
+ *  -DnameLength=3-40 -DnameMean=12 -DnameStddev=4   name length in characters, normal distribution clamped to the range
+ *  -Dutf8=0.01            ratio of names in multi-byte alphabets (hebrew, cyrillic, greek, cjk)
+ *  -Dduplicates=0.01      ratio of tickets repeating one of the recent tickets of the chunk, numbers reordered
+ *  -Ddraw=9,13,40,34,17,7 -Dwinners=100   planted winners, random tickets never match the whole draw
+ *  -Dthreads=8 -DchunkSize=64m
+ *
+ * The answers file has the tier counts of the draw ("Match k: n") and the names of the planted winners in file order.
+ *
+ * Big thanks to Mike, for bringing this challenge.
+ *
+ * Follow me at: github.com/yavuztas
+ */
+public class PoolGenerator {
+
+  private static final Path OUT_FILE = Path.of(System.getProperty("out", "pool.csv"));
+  private static final Path ANSWERS_FILE = Path.of(OUT_FILE + ".answers");
+  private static final long SIZE = parseSize(System.getProperty("size", "1g"));
+  private static final long SEED = Long.getLong("seed", 42);
+
+  private static final int RANGE = Integer.getInteger("range", 49);
+  private static final int PICK = Integer.getInteger("pick", 6);
+  private static final int[] NAME_LENGTH = Stream.of(System.getProperty("nameLength", "3-40").split("-")).mapToInt(Integer::parseInt).toArray();
+  private static final double NAME_MEAN = Double.parseDouble(System.getProperty("nameMean", "12"));
+  private static final double NAME_STDDEV = Double.parseDouble(System.getProperty("nameStddev", "4"));
+  private static final double UTF8_RATIO = Double.parseDouble(System.getProperty("utf8", "0.01"));
+  private static final double DUPLICATE_RATIO = Double.parseDouble(System.getProperty("duplicates", "0.01"));
+
+  private static final int[] DRAW = Stream.of(System.getProperty("draw", "9,13,40,34,17,7").split("[^0-9]+")).mapToInt(Integer::parseInt).toArray();
+  private static final long WINNERS = Long.getLong("winners", 100);
+
+  private static final int THREADS = Integer.getInteger("threads", Runtime.getRuntime().availableProcessors());
+  private static final long CHUNK_SIZE = parseSize(System.getProperty("chunkSize", "64m"));
+
+  // first letter and letter count of each alphabet, ascii first
+  private static final int[][] ALPHABETS = {
+    { 'a', 26 },
+    { 0x05D0, 27 }, // hebrew, 2 bytes
+    { 0x0430, 32 }, // cyrillic, 2 bytes
+    { 0x03B1, 25 }, // greek, 2 bytes
+    { 0x4E00, 2048 }, // cjk, 3 bytes
+  };
+
+  private static final int TAIL_MAX = PICK * (1 + String.valueOf(RANGE).length()); // ";dd" for each number
+  // longest line a chunk can get, chunks are closed by two padded lines before their end gets closer than twice of it
+  private static final int MAX_LINE = Math.max(3 * NAME_LENGTH[1] + TAIL_MAX + 1, 2 * TAIL_MAX + 8);
+  private static final int RECENT_TICKETS = 64; // duplicates are taken from the last tickets of the chunk
+
+  // size with an optional k, m or g suffix
+  static long parseSize(String size) {
+    final char unit = Character.toLowerCase(size.charAt(size.length() - 1));
+    final int shift = unit == 'k' ? 10 : unit == 'm' ? 20 : unit == 'g' ? 30 : 0;
+    return Long.parseLong(shift == 0 ? size : size.substring(0, size.length() - 1)) << shift;
+  }
+
+  static class ChunkWriter extends Thread {
+
+    final MemorySegment segment;
+    final AtomicInteger cursor; // next chunk to claim
+    final int chunkCount;
+    final boolean[] drawn = new boolean[RANGE + 1];
+
+    final long[] tierCounts = new long[PICK + 1];
+    final StringBuilder[] winnerNames; // per chunk, only the chunks of this writer are set
+
+    // scratch
+    final byte[] line = new byte[MAX_LINE];
+    final int[] numbers = new int[RANGE];
+    final int[][] recent = new int[RECENT_TICKETS][PICK];
+    final int[] ticket = new int[PICK];
+    int recentCount;
+    SplittableRandom random;
+
+    ChunkWriter(MemorySegment segment, AtomicInteger cursor, int chunkCount, StringBuilder[] winnerNames) {
+      this.segment = segment;
+      this.cursor = cursor;
+      this.chunkCount = chunkCount;
+      this.winnerNames = winnerNames;
+      for (int number : DRAW) this.drawn[number] = true;
+    }
+
+    @Override
+    public void run() {
+      int chunk;
+      while ((chunk = this.cursor.getAndIncrement()) < this.chunkCount) {
+        final long start = chunk * CHUNK_SIZE;
+        final long end = chunk == this.chunkCount - 1 ? SIZE : start + CHUNK_SIZE; // last chunk takes the remainder
+        final long winners = WINNERS / this.chunkCount + (chunk < WINNERS % this.chunkCount ? 1 : 0);
+        this.winnerNames[chunk] = new StringBuilder();
+        writeChunk(chunk, start, end, winners);
+      }
+    }
+
+    void writeChunk(int chunk, long start, long end, long winners) {
+      this.random = new SplittableRandom(SEED * 0x9E3779B97F4A7C15L + chunk);
+      this.recentCount = 0;
+      final long size = end - start;
+      long position = start;
+      long planted = 0;
+      while (end - position > 2 * MAX_LINE) {
+        // winners are spread evenly, the j-th one is the first line after j.5 / winners of the chunk
+        final boolean winner = planted < winners && position - start >= size * (2 * planted + 1) / (2 * winners);
+        final int tailLength = winner ? winningTicket() : randomTicket();
+        final int nameLength = writeName(tailLength);
+        position = writeLine(position, nameLength, tailLength, winner, chunk);
+        if (winner) planted++;
+      }
+      // close the chunk with two padded lines, a leftover winner takes one of them
+      final long remaining = end - position;
+      final long first = remaining / 2;
+      for (long length : new long[] { first, remaining - first }) {
+        final boolean winner = planted < winners;
+        final int tailLength = winner ? winningTicket() : randomTicket();
+        final int nameLength = (int) length - tailLength - 1;
+        writeAsciiName(nameLength, tailLength);
+        position = writeLine(position, nameLength, tailLength, winner, chunk);
+        if (winner) planted++;
+      }
+    }
+
+    private long writeLine(long position, int nameLength, int tailLength, boolean winner, int chunk) {
+      int score = 0;
+      for (int number : this.ticket) score += this.drawn[number] ? 1 : 0;
+      this.tierCounts[score]++;
+      if (winner) {
+        this.winnerNames[chunk].append(new String(this.line, 0, nameLength, UTF_8)).append('\n');
+      }
+      this.line[nameLength + tailLength] = '\n';
+      final int length = nameLength + tailLength + 1;
+      MemorySegment.copy(MemorySegment.ofArray(this.line), 0, this.segment, position, length);
+      return position + length;
+    }
+
+    // ticket into this.ticket, written at the end of the line buffer, returns its length
+    private int randomTicket() {
+      if (this.recentCount > 0 && this.random.nextDouble() < DUPLICATE_RATIO) {
+        System.arraycopy(this.recent[this.random.nextInt(Math.min(this.recentCount, RECENT_TICKETS))], 0, this.ticket, 0, PICK);
+        shuffle(this.ticket);
+      }
+      else {
+        int score;
+        do { // partial fisher-yates, first PICK numbers are the ticket
+          for (int i = 0; i < RANGE; i++) this.numbers[i] = i + 1;
+          score = 0;
+          for (int i = 0; i < PICK; i++) {
+            final int j = i + this.random.nextInt(RANGE - i);
+            final int n = this.numbers[j];
+            this.numbers[j] = this.numbers[i];
+            this.ticket[i] = n;
+            score += this.drawn[n] ? 1 : 0;
+          }
+        } while (score == PICK); // only planted winners match the whole draw
+        System.arraycopy(this.ticket, 0, this.recent[this.recentCount++ % RECENT_TICKETS], 0, PICK);
+      }
+      return writeTail();
+    }
+
+    private int winningTicket() {
+      System.arraycopy(DRAW, 0, this.ticket, 0, PICK);
+      shuffle(this.ticket);
+      return writeTail();
+    }
+
+    // tail is written to the end of the buffer first, moved right after the name when its length is known
+    private int writeTail() {
+      int pos = MAX_LINE;
+      for (int i = PICK - 1; i >= 0; i--) {
+        int n = this.ticket[i];
+        do {
+          this.line[--pos] = (byte) ('0' + n % 10);
+          n /= 10;
+        } while (n > 0);
+        this.line[--pos] = ';';
+      }
+      return MAX_LINE - pos;
+    }
+
+    // name in front of the tail, returns its length in bytes
+    private int writeName(int tailLength) {
+      final int chars = (int) Math.max(NAME_LENGTH[0], Math.min(NAME_LENGTH[1], Math.round(NAME_MEAN + this.random.nextGaussian() * NAME_STDDEV)));
+      final int[] alphabet = this.random.nextDouble() < UTF8_RATIO ? ALPHABETS[1 + this.random.nextInt(ALPHABETS.length - 1)] : ALPHABETS[0];
+      int pos = 0;
+      for (int i = 0; i < chars; i++) {
+        final int c = i == chars / 2 && chars > 4 ? ' ' : alphabet[0] + this.random.nextInt(alphabet[1]); // first and last name
+        if (c < 0x80) {
+          this.line[pos++] = (byte) c;
+        }
+        else if (c < 0x800) {
+          this.line[pos++] = (byte) (0xC0 | (c >> 6));
+          this.line[pos++] = (byte) (0x80 | (c & 0x3F));
+        }
+        else {
+          this.line[pos++] = (byte) (0xE0 | (c >> 12));
+          this.line[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+          this.line[pos++] = (byte) (0x80 | (c & 0x3F));
+        }
+      }
+      System.arraycopy(this.line, MAX_LINE - tailLength, this.line, pos, tailLength);
+      return pos;
+    }
+
+    // padding lines, ascii name of the exact length in front of the tail
+    private void writeAsciiName(int length, int tailLength) {
+      for (int i = 0; i < length; i++) {
+        this.line[i] = i == length / 2 && length > 4 ? (byte) ' ' : (byte) ('a' + this.random.nextInt(26));
+      }
+      System.arraycopy(this.line, MAX_LINE - tailLength, this.line, length, tailLength);
+    }
+
+    private void shuffle(int[] values) {
+      for (int i = values.length - 1; i > 0; i--) {
+        final int j = this.random.nextInt(i + 1);
+        final int tmp = values[i];
+        values[i] = values[j];
+        values[j] = tmp;
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (DRAW.length != PICK || Arrays.stream(DRAW).distinct().count() != PICK || Arrays.stream(DRAW).anyMatch(n -> n < 1 || n > RANGE)) {
+      throw new IllegalArgumentException("Draw must have " + PICK + " unique numbers in [1-" + RANGE + "]: " + Arrays.toString(DRAW));
+    }
+    final int chunkCount = (int) Math.max(1, SIZE / CHUNK_SIZE);
+    if (SIZE <= 4L * MAX_LINE) {
+      throw new IllegalArgumentException("Size is too small: " + SIZE);
+    }
+
+    System.out.println("File: " + OUT_FILE);
+    System.out.println("File size: " + SIZE);
+    System.out.println("Chunks: " + chunkCount + " x " + Math.min(SIZE, CHUNK_SIZE));
+    System.out.println("Threads: " + THREADS);
+
+    final long begin = System.nanoTime();
+    final AtomicInteger cursor = new AtomicInteger();
+    final StringBuilder[] winnerNames = new StringBuilder[chunkCount];
+    final long[] tierCounts = new long[PICK + 1];
+    try (FileChannel channel = FileChannel.open(OUT_FILE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+         Arena arena = Arena.ofShared()) {
+      final MemorySegment segment = channel.map(MapMode.READ_WRITE, 0, SIZE, arena); // grows the file to its final size
+      final ChunkWriter[] writers = new ChunkWriter[Math.min(THREADS, chunkCount)];
+      for (int i = 0; i < writers.length; i++) {
+        writers[i] = new ChunkWriter(segment, cursor, chunkCount, winnerNames);
+        writers[i].start();
+      }
+      for (ChunkWriter writer : writers) {
+        writer.join();
+        for (int k = 0; k <= PICK; k++) tierCounts[k] += writer.tierCounts[k];
+      }
+      segment.force();
+    }
+    writeAnswers(tierCounts, winnerNames);
+
+    long lines = 0;
+    for (long count : tierCounts) lines += count;
+    System.out.println("Lines: " + lines);
+    System.out.println("Winners: " + tierCounts[PICK]);
+    System.out.printf("Took: %d ms%n", (System.nanoTime() - begin) / 1_000_000);
+  }
+
+  static void writeAnswers(long[] tierCounts, StringBuilder[] winnerNames) throws IOException {
+    final StringBuilder answers = new StringBuilder();
+    answers.append("# draw: ").append(Arrays.toString(DRAW)).append('\n');
+    for (int k = 0; k <= PICK; k++) {
+      answers.append("Match ").append(k).append(": ").append(tierCounts[k]).append('\n');
+    }
+    for (StringBuilder names : winnerNames) {
+      answers.append(names);
+    }
+    Files.writeString(ANSWERS_FILE, answers, UTF_8);
+  }
+
+}